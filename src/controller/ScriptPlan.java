@@ -0,0 +1,298 @@
+package src.controller;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.function.UnaryOperator;
+import src.controller.commands.SaveImage;
+import src.model.ExtendedImageHandlerAdapter;
+import src.view.View;
+
+/**
+ * A compiled script: the steps of its commands, with every argument parsed and checked and every
+ * image name resolved to a slot of the table of names of the plan. Compiling reports any invalid
+ * command before anything runs, and a plan, which is serializable, can be run any number of times
+ * without being parsed again, on other files through {@link #withPaths}. The images that the script
+ * reads before writing them are found from the table too, and a run stops before its first
+ * command if the handler does not hold them.
+ *
+ * <p>Compiling also plans how the script runs best: a load whose image is only used by the
+ * downscale or crop that follows it decodes just what that command needs, the image at the
+ * downscaled size or the cropped rectangle, and the files of the next few loads are decoded in the
+ * background ahead of time.
+ */
+public final class ScriptPlan implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+  private static final int PREFETCHED_LOADS = 2;
+
+  private final String[] names;
+  private final ScriptStep[] steps;
+  private final boolean[] fused;
+  private final int[][] prefetches;
+  private final int[] inputs;
+
+  private ScriptPlan(String[] names, ScriptStep[] steps) {
+    this.names = names;
+    this.steps = steps;
+    fused = new boolean[steps.length];
+    for (int i = 0; i + 1 < steps.length; i++) {
+      fused[i] = loadsOnlyForNext(i);
+    }
+    prefetches = new int[steps.length][];
+    for (int i = 0; i < steps.length; i++) {
+      prefetches[i] = prefetchesAfter(i);
+    }
+    inputs = inputs();
+  }
+
+  /**
+   * Compiles a script, skipping blank lines and comments.
+   *
+   * @param script text of the script.
+   * @return the plan of the script.
+   * @throws IllegalArgumentException if a command is unknown or its arguments are invalid.
+   */
+  public static ScriptPlan compile(Readable script) {
+    Scanner scanner = new Scanner(script);
+    List<String[]> commands = new ArrayList<>();
+    for (String[] command = nextCommand(scanner); command != null;
+        command = nextCommand(scanner)) {
+      commands.add(command);
+    }
+    return compile(commands);
+  }
+
+  /**
+   * Compiles the commands of a script.
+   *
+   * @param commands commands of the script, each as its words.
+   * @return the plan of the script.
+   * @throws IllegalArgumentException if a command is unknown or its arguments are invalid.
+   */
+  public static ScriptPlan compile(List<String[]> commands) {
+    Map<String, Integer> slots = new LinkedHashMap<>();
+    ScriptStep[] steps = new ScriptStep[commands.size()];
+    for (int i = 0; i < steps.length; i++) {
+      steps[i] = ScriptStep.compile(commands.get(i), slots);
+    }
+    return new ScriptPlan(slots.keySet().toArray(new String[0]), steps);
+  }
+
+  /**
+   * Runs a single command on the images of a handler, checking its arguments as a script would.
+   * The first word of the arguments is replaced by the keyword, so callers that name the command
+   * differently run the same command.
+   *
+   * @param keyword keyword of the command.
+   * @param args    words of the command.
+   * @param handler handler to run the command on.
+   * @param saves   command that saves images.
+   * @throws IllegalArgumentException if the arguments are invalid.
+   */
+  public static void execute(String keyword, String[] args, ExtendedImageHandlerAdapter handler,
+      SaveImage saves) {
+    String[] command = Arrays.copyOf(args, Math.max(args.length, 1));
+    command[0] = keyword;
+    ScriptPlan plan = compile(Collections.singletonList(command));
+    plan.checkInputs(handler);
+    try {
+      plan.steps[0].run(handler, plan.names, saves);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Runs a single command on the images of a handler, saving right away.
+   *
+   * @param keyword keyword of the command.
+   * @param args    words of the command.
+   * @param handler handler to run the command on.
+   * @throws IllegalArgumentException if the arguments are invalid.
+   */
+  public static void execute(String keyword, String[] args, ExtendedImageHandlerAdapter handler) {
+    execute(keyword, args, handler, new SaveImage());
+  }
+
+  /**
+   * Checks whether a word names a command of the scripting language.
+   *
+   * @param command first word of a command.
+   * @return true if there is such a command.
+   */
+  public static boolean isCommand(String command) {
+    return ScriptStep.Operation.of(command) != null;
+  }
+
+  /**
+   * Reads the next command of a script, skipping blank lines and comments.
+   *
+   * @param scanner scanner over the script.
+   * @return the words of the command, or null at the end of the script.
+   */
+  static String[] nextCommand(Scanner scanner) {
+    while (scanner.hasNextLine()) {
+      String line = scanner.nextLine().trim();
+      if (!line.isEmpty() && !line.startsWith("#")) {
+        return line.split("\\s+");
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets a plan that loads from and saves to other files.
+   *
+   * @param mapping function giving the new path of each file the script loads or saves.
+   * @return the plan with its paths replaced.
+   */
+  public ScriptPlan withPaths(UnaryOperator<String> mapping) {
+    ScriptStep[] mapped = steps.clone();
+    for (int i = 0; i < mapped.length; i++) {
+      if (mapped[i].path != null) {
+        mapped[i] = mapped[i].withPath(mapping.apply(mapped[i].path));
+      }
+    }
+    return new ScriptPlan(names, mapped);
+  }
+
+  /**
+   * Gets a plan without the commands whose results can never be saved.
+   *
+   * @param skipped list to add the commands left out to, each as its words.
+   * @return the plan of the commands that are needed.
+   */
+  public ScriptPlan withoutUnsavedResults(List<String[]> skipped) {
+    List<ScriptStep> left = new ArrayList<>();
+    List<ScriptStep> kept = ScriptPruner.prune(Arrays.asList(steps), left);
+    for (ScriptStep step : left) {
+      skipped.add(step.command);
+    }
+    return new ScriptPlan(names, kept.toArray(new ScriptStep[0]));
+  }
+
+  /**
+   * Runs the plan, reporting each command through a view as soon as it is done. Before any command
+   * runs, the images the plan reads without writing them first are checked to be in the handler.
+   * Files prefetched for loads that never ran, because a command failed, are dropped at the end.
+   *
+   * @param handler handler to run the commands on.
+   * @param view    view to report to.
+   * @param saves   command that saves the images, right away or on its queue.
+   * @throws IllegalArgumentException if the handler has no image that the plan reads first.
+   */
+  public void run(ExtendedImageHandlerAdapter handler, View view, SaveImage saves) {
+    checkInputs(handler);
+    try {
+      for (int i = 0; i < steps.length; i++) {
+        for (int load : prefetches[i]) {
+          handler.prefetch(Paths.get(steps[load].path));
+        }
+        ScriptStep step = steps[i];
+        if (fused[i]) {
+          ScriptStep command = steps[++i];
+          command.runFused(step, handler, names, saves);
+          step.report(view);
+          command.report(view);
+        } else {
+          step.run(handler, names, saves);
+          step.report(view);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      handler.cancelPrefetches();
+    }
+  }
+
+  private void checkInputs(ExtendedImageHandlerAdapter handler) {
+    for (int slot : inputs) {
+      if (!handler.hasImage(names[slot])) {
+        throw new IllegalArgumentException("No image found with name: " + names[slot]);
+      }
+    }
+  }
+
+  /**
+   * Finds the slots of the images that a step reads before any step writes them, and that must
+   * therefore be in the handler when the plan starts.
+   */
+  private int[] inputs() {
+    BitSet written = new BitSet(names.length);
+    BitSet inputs = new BitSet(names.length);
+    for (ScriptStep step : steps) {
+      for (int i = 0; i < step.reads; i++) {
+        if (step.requires(i) && !written.get(step.images[i])) {
+          inputs.set(step.images[i]);
+        }
+      }
+      for (int i = step.reads; i < step.images.length; i++) {
+        written.set(step.images[i]);
+      }
+    }
+    return inputs.stream().toArray();
+  }
+
+  /**
+   * Checks whether a step loads an image file whose image is only used by the downscale or crop
+   * that follows it: either that command replaces the image, or no later step names it.
+   */
+  private boolean loadsOnlyForNext(int load) {
+    ScriptStep command = steps[load + 1];
+    int slot = steps[load].images[0];
+    if (!command.fusesWith(steps[load])) {
+      return false;
+    }
+    if (command.images[1] == slot) {
+      return true;
+    }
+    for (int i = load + 2; i < steps.length; i++) {
+      if (steps[i].names(slot)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the next few loads after a step whose files can be decoded ahead of time. Loads that run
+   * together with the command after them are left out, as are files that an earlier save of the
+   * script writes to.
+   */
+  private int[] prefetchesAfter(int step) {
+    List<Integer> loads = new ArrayList<>();
+    int found = 0;
+    for (int i = step + 1; i < steps.length && found < PREFETCHED_LOADS; i++) {
+      if (steps[i].operation != ScriptStep.Operation.LOAD) {
+        continue;
+      }
+      found++;
+      if (!fused[i] && !savedBefore(Paths.get(steps[i].path), i)) {
+        loads.add(i);
+      }
+    }
+    return loads.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private boolean savedBefore(Path path, int end) {
+    Path file = path.toAbsolutePath().normalize();
+    for (int i = 0; i < end; i++) {
+      if (steps[i].operation == ScriptStep.Operation.SAVE && SaveImage.outputFile(steps[i].path)
+          .toPath().toAbsolutePath().normalize().equals(file)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
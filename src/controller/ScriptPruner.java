@@ -0,0 +1,49 @@
+package src.controller;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the steps of a compiled script whose results can never be saved. The script is walked
+ * backwards from its saves: a step is needed if it writes an image slot that a later needed step
+ * reads before the slot is written again, and then the slots it reads are needed in turn. Every
+ * other step only computes images that are overwritten or forgotten unused, so it can be skipped
+ * without changing any file the script writes.
+ */
+final class ScriptPruner {
+
+  private ScriptPruner() {
+  }
+
+  /**
+   * Splits the steps of a script into the steps that are needed and the steps that can be
+   * skipped.
+   *
+   * @param steps   steps of the script, in order.
+   * @param skipped list to add the steps that can be skipped to, in order.
+   * @return the steps that are needed, in order.
+   */
+  static List<ScriptStep> prune(List<ScriptStep> steps, List<ScriptStep> skipped) {
+    boolean[] needed = new boolean[steps.size()];
+    Set<Integer> live = new HashSet<>();
+    for (int i = steps.size() - 1; i >= 0; i--) {
+      ScriptStep step = steps.get(i);
+      needed[i] = step.operation == ScriptStep.Operation.SAVE;
+      for (int image = step.reads; image < step.images.length; image++) {
+        needed[i] |= live.remove(step.images[image]);
+      }
+      if (needed[i]) {
+        for (int image = 0; image < step.reads; image++) {
+          live.add(step.images[image]);
+        }
+      }
+    }
+    List<ScriptStep> kept = new ArrayList<>();
+    for (int i = 0; i < steps.size(); i++) {
+      (needed[i] ? kept : skipped).add(steps.get(i));
+    }
+    return kept;
+  }
+}
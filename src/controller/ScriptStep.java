@@ -0,0 +1,581 @@
+package src.controller;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import src.controller.commands.SaveImage;
+import src.model.ColorMatrix;
+import src.model.ExtendedImageHandlerAdapter;
+import src.view.View;
+
+/**
+ * One command of a compiled script. Its arguments are parsed and checked when the step is compiled,
+ * so running it only calls the handler. The images it names are stored as slots, indices into the
+ * table of image names of the plan: the slots it reads come first, then the slots it writes.
+ *
+ * <p>The command classes of {@code src.controller.commands} run their commands as steps too, so
+ * the arguments of a command are checked in this class only.
+ */
+final class ScriptStep implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The commands of the scripting language, with the view message each reports when it is done.
+   */
+  enum Operation {
+    LOAD("load", View::viewLoad),
+    SAVE("save", View::viewSave),
+    BRIGHTEN("brighten", View::viewBrighten),
+    BLUR("blur", View::viewBlur),
+    SHARPEN("sharpen", View::viewSharpen),
+    SEPIA("sepia", View::viewSepia),
+    HORIZONTAL_FLIP("horizontal-flip", View::viewHorizontalFlip),
+    VERTICAL_FLIP("vertical-flip", View::viewVerticalFlip),
+    RGB_COMBINE("rgb-combine", View::viewRgbCombine),
+    RGB_SPLIT("rgb-split", View::viewRgbSplit),
+    RED_COMPONENT("red-component", View::viewRedComponent),
+    GREEN_COMPONENT("green-component", View::viewGreenComponent),
+    BLUE_COMPONENT("blue-component", View::viewBlueComponent),
+    LUMA_COMPONENT("luma-component", View::viewLumaComponent),
+    INTENSITY_COMPONENT("intensity-component", View::viewIntensityComponent),
+    VALUE_COMPONENT("value-component", View::viewValueComponent),
+    HISTOGRAM("histogram", View::viewHistogram),
+    COLOR_CORRECT("color-correct", View::viewColorCorrect),
+    COMPRESS("compress", View::viewCompress),
+    LEVELS_ADJUST("levels-adjust", View::viewLevelsAdjust),
+    DOWNSCALE("downscale", View::viewDownscale),
+    CHANNEL_MIX("channel-mix", View::viewChannelMix),
+    CROP("crop", View::viewCrop);
+
+    private static final Map<String, Operation> BY_NAME = new HashMap<>();
+
+    static {
+      for (Operation operation : values()) {
+        BY_NAME.put(operation.keyword, operation);
+      }
+    }
+
+    private final String keyword;
+    private final BiConsumer<View, String[]> report;
+
+    Operation(String keyword, BiConsumer<View, String[]> report) {
+      this.keyword = keyword;
+      this.report = report;
+    }
+
+    /**
+     * Gets the operation of a command.
+     *
+     * @param keyword first word of the command.
+     * @return the operation, or null if there is no such command.
+     */
+    static Operation of(String keyword) {
+      return BY_NAME.get(keyword);
+    }
+  }
+
+  /**
+   * The forms of the commands that take a source and a result image: on the whole image, through a
+   * mask image, or on the part of the image left of a split line.
+   */
+  enum Form {
+    PLAIN, MASKED, SPLIT
+  }
+
+  final Operation operation;
+  final Form form;
+  final String[] command;
+  final int[] images;
+  final int reads;
+  final int[] integers;
+  final double[] decimals;
+  final String path;
+
+  private ScriptStep(Operation operation, Form form, String[] command, int[] images, int reads,
+      int[] integers, double[] decimals, String path) {
+    this.operation = operation;
+    this.form = form;
+    this.command = command;
+    this.images = images;
+    this.reads = reads;
+    this.integers = integers;
+    this.decimals = decimals;
+    this.path = path;
+  }
+
+  /**
+   * Compiles a command, checking the number and syntax of its arguments and that their values are
+   * in range.
+   *
+   * @param command words of the command.
+   * @param slots   slots of the image names seen so far; names seen for the first time are added.
+   * @return the step.
+   * @throws IllegalArgumentException if the command is unknown or its arguments are invalid.
+   */
+  static ScriptStep compile(String[] command, Map<String, Integer> slots) {
+    Operation operation = Operation.of(command[0]);
+    if (operation == null) {
+      throw new IllegalArgumentException("Unknown command: " + String.join(" ", command));
+    }
+    int length = command.length;
+    Builder step = new Builder(operation, command, slots);
+    switch (operation) {
+      case LOAD:
+        return step.check(length == 3).path(1).images(0, 2);
+      case SAVE:
+        return step.check(length == 3).path(2).images(1, 1);
+      case BRIGHTEN:
+        return step.check(length == 4).integers("Invalid brightness", 1).images(1, 2, 3);
+      case HORIZONTAL_FLIP:
+      case VERTICAL_FLIP:
+      case HISTOGRAM:
+        return step.check(length == 3).images(1, 1, 2);
+      case RGB_COMBINE:
+        return step.check(length == 5).images(3, 2, 3, 4, 1);
+      case RGB_SPLIT:
+        return step.check(length == 5).images(1, 1, 2, 3, 4);
+      case RED_COMPONENT:
+      case GREEN_COMPONENT:
+      case BLUE_COMPONENT:
+        step.check(length == 3 || length == 4);
+        return length == 4 ? step.form(Form.MASKED).images(2, 1, 2, 3) : step.images(1, 1, 2);
+      case BLUR:
+      case SHARPEN:
+      case SEPIA:
+      case LUMA_COMPONENT:
+      case INTENSITY_COMPONENT:
+      case VALUE_COMPONENT:
+        step.check(length >= 3 && length <= 5);
+        if (length == 4) {
+          return step.form(Form.MASKED).images(2, 1, 2, 3);
+        }
+        return length == 5 ? step.split(operation == Operation.SHARPEN ? "Wrong command"
+            : "Invalid command").images(1, 1, 2) : step.images(1, 1, 2);
+      case COLOR_CORRECT:
+        step.check(length == 3 || length == 5);
+        return length == 5 ? step.split("Invalid command").images(1, 1, 2) : step.images(1, 1, 2);
+      case COMPRESS:
+        return step.check(length == 4).decimals("Invalid compression percentage", 3, 4)
+            .percentage().images(1, 1, 2);
+      case LEVELS_ADJUST:
+        return step.levels().images(1, 4, 5);
+      case DOWNSCALE:
+        return step.check(length == 5).sizes("Width and height must be valid integers", 3)
+            .images(1, 1, 2);
+      case CHANNEL_MIX:
+        return step.check(length == 12 || length == 15).matrix().images(1, length - 2,
+            length - 1);
+      case CROP:
+        return step.check(length == 7)
+            .sizes("Crop position and size must be valid integers", 3).images(1, 1, 2);
+      default:
+        throw new IllegalArgumentException("Unknown command: " + String.join(" ", command));
+    }
+  }
+
+  /**
+   * Gets a copy of this step that loads from or saves to another file.
+   *
+   * @param path new path of the file.
+   * @return the step with its path, and the path in its command, replaced.
+   */
+  ScriptStep withPath(String path) {
+    String[] renamed = command.clone();
+    renamed[operation == Operation.LOAD ? 1 : 2] = path;
+    return new ScriptStep(operation, form, renamed, images, reads, integers, decimals, path);
+  }
+
+  /**
+   * Checks whether this step names an image slot, as a source or as a result.
+   *
+   * @param slot slot to look for.
+   * @return true if the step reads or writes the slot.
+   */
+  boolean names(int slot) {
+    for (int image : images) {
+      if (image == slot) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether an image this step reads must exist. The mask of the masked form is optional:
+   * without it, the dark pixels of the source image are masked.
+   *
+   * @param read index of the image among the images the step reads.
+   * @return true if the image must exist.
+   */
+  boolean requires(int read) {
+    return form != Form.MASKED || read != 1;
+  }
+
+  /**
+   * Reports this step as done through a view.
+   *
+   * @param view view to report to.
+   */
+  void report(View view) {
+    operation.report.accept(view, command);
+  }
+
+  /**
+   * Runs this step.
+   *
+   * @param handler handler to run the step on.
+   * @param names   table of image names of the plan.
+   * @param saves   command that saves images.
+   * @throws IOException if a file cannot be read or written.
+   */
+  void run(ExtendedImageHandlerAdapter handler, String[] names, SaveImage saves)
+      throws IOException {
+    String[] image = new String[images.length];
+    for (int i = 0; i < images.length; i++) {
+      image[i] = names[images[i]];
+    }
+    switch (operation) {
+      case LOAD:
+        saves.awaitSaves(Paths.get(path));
+        if (isPpm(path)) {
+          handler.loadImagePixelsFromPPM(Paths.get(path), image[0]);
+        } else {
+          handler.loadImagePixels(Paths.get(path), image[0]);
+        }
+        break;
+      case SAVE:
+        saves.save(handler, image[0], path);
+        break;
+      case BRIGHTEN:
+        handler.brighten(image[0], image[1], integers[0]);
+        break;
+      case HORIZONTAL_FLIP:
+        handler.horizontalFlip(image[0], image[1]);
+        break;
+      case VERTICAL_FLIP:
+        handler.verticalFlip(image[0], image[1]);
+        break;
+      case HISTOGRAM:
+        handler.histogram(image[0], image[1]);
+        break;
+      case RGB_COMBINE:
+        handler.rgbCombine(image[3], image[0], image[1], image[2]);
+        break;
+      case RGB_SPLIT:
+        handler.rgbSplit(image[0], image[1], image[2], image[3]);
+        break;
+      case RED_COMPONENT:
+        if (form == Form.MASKED) {
+          handler.redComponentWithMask(image[0], image[1], image[2]);
+        } else {
+          handler.redComponent(image[0], image[1]);
+        }
+        break;
+      case GREEN_COMPONENT:
+        if (form == Form.MASKED) {
+          handler.greenComponentWithMask(image[0], image[1], image[2]);
+        } else {
+          handler.greenComponent(image[0], image[1]);
+        }
+        break;
+      case BLUE_COMPONENT:
+        if (form == Form.MASKED) {
+          handler.blueComponentWithMask(image[0], image[1], image[2]);
+        } else {
+          handler.blueComponent(image[0], image[1]);
+        }
+        break;
+      case BLUR:
+        if (form == Form.MASKED) {
+          handler.blurWithMask(image[0], image[1], image[2]);
+        } else if (form == Form.SPLIT) {
+          handler.blurWithSplit(image[0], image[1], integers[0]);
+        } else {
+          handler.blur(image[0], image[1]);
+        }
+        break;
+      case SHARPEN:
+        if (form == Form.MASKED) {
+          handler.sharpenWithMask(image[0], image[1], image[2]);
+        } else if (form == Form.SPLIT) {
+          handler.sharpenWithSplit(image[0], image[1], integers[0]);
+        } else {
+          handler.sharpen(image[0], image[1]);
+        }
+        break;
+      case SEPIA:
+        if (form == Form.MASKED) {
+          handler.sepiaWithMask(image[0], image[1], image[2]);
+        } else if (form == Form.SPLIT) {
+          handler.sepiaWithSplit(image[0], image[1], integers[0]);
+        } else {
+          handler.sepia(image[0], image[1]);
+        }
+        break;
+      case LUMA_COMPONENT:
+        if (form == Form.MASKED) {
+          handler.lumaWithMask(image[0], image[1], image[2]);
+        } else if (form == Form.SPLIT) {
+          handler.lumaWithSplit(image[0], image[1], integers[0]);
+        } else {
+          handler.lumaComponent(image[0], image[1]);
+        }
+        break;
+      case INTENSITY_COMPONENT:
+        if (form == Form.MASKED) {
+          handler.intensityWithMask(image[0], image[1], image[2]);
+        } else if (form == Form.SPLIT) {
+          handler.intensityWithSplit(image[0], image[1], integers[0]);
+        } else {
+          handler.intensityComponent(image[0], image[1]);
+        }
+        break;
+      case VALUE_COMPONENT:
+        if (form == Form.MASKED) {
+          handler.valueWithMask(image[0], image[1], image[2]);
+        } else if (form == Form.SPLIT) {
+          handler.valueWithSplit(image[0], image[1], integers[0]);
+        } else {
+          handler.valueComponent(image[0], image[1]);
+        }
+        break;
+      case COLOR_CORRECT:
+        if (form == Form.SPLIT) {
+          handler.colorCorrectWithSplit(image[0], image[1], integers[0]);
+        } else {
+          handler.colorCorrect(image[0], image[1]);
+        }
+        break;
+      case COMPRESS:
+        handler.compress(image[0], image[1], decimals[0]);
+        break;
+      case LEVELS_ADJUST:
+        if (form == Form.SPLIT) {
+          handler.levelAdjustWithSplit(integers[0], integers[1], integers[2], image[0], image[1],
+              integers[3]);
+        } else {
+          handler.levelsAdjust(integers[0], integers[1], integers[2], image[0], image[1]);
+        }
+        break;
+      case DOWNSCALE:
+        handler.downscale(image[0], image[1], integers[0], integers[1]);
+        break;
+      case CHANNEL_MIX:
+        handler.applyColorMatrix(image[0], image[1], new ColorMatrix(matrix(decimals)));
+        break;
+      case CROP:
+        handler.crop(image[0], image[1], integers[0], integers[1], integers[2], integers[3]);
+        break;
+      default:
+        throw new IllegalStateException("Unknown operation: " + operation);
+    }
+  }
+
+  /**
+   * Checks whether this step is a downscale or crop that can decode its source image straight from
+   * the file of a load, at the downscaled size or as the cropped rectangle.
+   *
+   * @param load step loading the source image of this step.
+   * @return true if the load can be fused into this step.
+   */
+  boolean fusesWith(ScriptStep load) {
+    return load.operation == Operation.LOAD && !isPpm(load.path)
+        && images[0] == load.images[0] && (operation == Operation.DOWNSCALE
+        || operation == Operation.CROP && integers[0] >= 0 && integers[1] >= 0);
+  }
+
+  /**
+   * Runs this step together with the load of its source image, decoding only what it needs.
+   *
+   * @param load    step loading the source image, as checked by {@link #fusesWith}.
+   * @param handler handler to run the steps on.
+   * @param names   table of image names of the plan.
+   * @param saves   command that saves images, whose pending saves of the file are waited for.
+   * @throws IOException if the file cannot be read.
+   */
+  void runFused(ScriptStep load, ExtendedImageHandlerAdapter handler, String[] names,
+      SaveImage saves) throws IOException {
+    saves.awaitSaves(Paths.get(load.path));
+    String result = names[images[1]];
+    if (operation == Operation.DOWNSCALE) {
+      handler.loadDownscaled(Paths.get(load.path), result, integers[0], integers[1]);
+    } else {
+      handler.loadRegion(Paths.get(load.path), result, integers[0], integers[1], integers[2],
+          integers[3]);
+    }
+  }
+
+  /**
+   * Checks whether a file is a PPM file: binary (P6) files end in .ppm, and ASCII (P3) files, as
+   * saved for compatibility, in .p3.
+   */
+  private static boolean isPpm(String path) {
+    return path.endsWith(".ppm") || path.endsWith(".p3");
+  }
+
+  private static double[][] matrix(double[] values) {
+    int columns = values.length / 3;
+    double[][] matrix = new double[3][];
+    for (int row = 0; row < 3; row++) {
+      matrix[row] = Arrays.copyOfRange(values, row * columns, (row + 1) * columns);
+    }
+    return matrix;
+  }
+
+  /**
+   * Parses the arguments of a command into a step.
+   */
+  private static final class Builder {
+
+    private final Operation operation;
+    private final String[] command;
+    private final Map<String, Integer> slots;
+    private Form form = Form.PLAIN;
+    private int[] integers = new int[0];
+    private double[] decimals = new double[0];
+    private String path;
+
+    Builder(Operation operation, String[] command, Map<String, Integer> slots) {
+      this.operation = operation;
+      this.command = command;
+      this.slots = slots;
+    }
+
+    Builder check(boolean valid) {
+      if (!valid) {
+        throw new IllegalArgumentException("Wrong number of arguments");
+      }
+      return this;
+    }
+
+    Builder form(Form form) {
+      this.form = form;
+      return this;
+    }
+
+    Builder path(int index) {
+      path = command[index];
+      return this;
+    }
+
+    Builder integers(String message, int... indices) {
+      integers = new int[indices.length];
+      try {
+        for (int i = 0; i < indices.length; i++) {
+          integers[i] = Integer.parseInt(command[indices[i]]);
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(message);
+      }
+      return this;
+    }
+
+    Builder decimals(String message, int from, int to) {
+      decimals = new double[to - from];
+      try {
+        for (int i = from; i < to; i++) {
+          decimals[i - from] = Double.parseDouble(command[i]);
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(message);
+      }
+      return this;
+    }
+
+    /**
+     * Parses the split line of the split form, which must follow the word "split".
+     */
+    Builder split(String message) {
+      if (!command[3].equals("split")) {
+        throw new IllegalArgumentException(message);
+      }
+      form = Form.SPLIT;
+      integers(message, 4);
+      checkSplit(integers[0]);
+      return this;
+    }
+
+    /**
+     * Checks that the compression percentage is more than 0 and at most 100.
+     */
+    Builder percentage() {
+      if (!(decimals[0] > 0 && decimals[0] <= 100)) {
+        throw new IllegalArgumentException("Compression percentage must be between 0 and 100.");
+      }
+      return this;
+    }
+
+    /**
+     * Parses the trailing sizes of a downscale or crop, which must be positive.
+     */
+    Builder sizes(String message, int from) {
+      int[] indices = new int[command.length - from];
+      for (int i = 0; i < indices.length; i++) {
+        indices[i] = from + i;
+      }
+      integers(message, indices);
+      if (integers[indices.length - 2] <= 0 || integers[indices.length - 1] <= 0) {
+        throw new IllegalArgumentException("Width and height must be positive integers");
+      }
+      return this;
+    }
+
+    Builder levels() {
+      String arguments = "Wrong number of arguments for levels-adjust command";
+      if (command.length != 6 && command.length != 8) {
+        throw new IllegalArgumentException(arguments);
+      }
+      if (command.length == 8 && !command[6].equals("split")) {
+        throw new IllegalArgumentException(arguments);
+      }
+      String message = "Invalid level values: black, mid, and white must be integers";
+      if (command.length == 8) {
+        form = Form.SPLIT;
+        integers(message, 1, 2, 3, 7);
+        checkSplit(integers[3]);
+      } else {
+        integers(message, 1, 2, 3);
+      }
+      int black = integers[0];
+      int mid = integers[1];
+      int white = integers[2];
+      if (black < 0 || mid <= black || white <= mid || white > 255) {
+        throw new IllegalArgumentException(
+            "Invalid levels: ensure 0 <= black < mid < white <= 255");
+      }
+      return this;
+    }
+
+    private static void checkSplit(int value) {
+      if (value < 0 || value > 100) {
+        throw new IllegalArgumentException("Value must be between 0 and 100");
+      }
+    }
+
+    Builder matrix() {
+      decimals("Invalid channel mix values: matrix must be numeric", 1, command.length - 2);
+      new ColorMatrix(ScriptStep.matrix(decimals));
+      return this;
+    }
+
+    /**
+     * Resolves the image names of the command to slots and builds the step.
+     *
+     * @param reads   number of the leading indices that name images the command reads.
+     * @param indices indices of the arguments naming images, the images read first.
+     * @return the step.
+     */
+    ScriptStep images(int reads, int... indices) {
+      int[] images = new int[indices.length];
+      for (int i = 0; i < indices.length; i++) {
+        images[i] = slots.computeIfAbsent(command[indices[i]], name -> slots.size());
+      }
+      return new ScriptStep(operation, form, command, images, reads, integers, decimals, path);
+    }
+  }
+}
@@ -2,62 +2,46 @@ package src.controller;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import src.controller.commands.ColorCorrect;
-import src.controller.commands.CommandController;
-import src.controller.commands.Compress;
-import src.controller.commands.Downscale;
-import src.controller.commands.Histogram;
-import src.controller.commands.ImageLoader;
-import src.controller.commands.LevelsAdjust;
 import src.controller.commands.SaveImage;
-import src.controller.commands.BlurImage;
-import src.controller.commands.BrightenImage;
-import src.controller.commands.SharpenImage;
-import src.controller.commands.VisualiseIntensity;
-import src.controller.commands.VisualiseGreen;
-import src.controller.commands.VisualiseLuma;
-import src.controller.commands.VisualiseRed;
-import src.controller.commands.VisualiseBlue;
-import src.controller.commands.FlipHorizontal;
-import src.controller.commands.FlipVertical;
-import src.controller.commands.ConvertToSepia;
-import src.controller.commands.RGBCombine;
-import src.controller.commands.RGBSplit;
-import src.controller.commands.VisualiseValue;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Scanner;
-import java.util.function.Function;
 import src.model.ExtendedImageHandlerAdapter;
 import src.view.View;
-import src.controller.helper.Pair;
+import src.controller.helper.SaveQueue;
 
 
 /**
  * SimpleScriptController class contains the link from controller to model and view respectively. It
- * processes the script line by line and ignores all comments. Further, it passes control to the
- * command controller object for the given functionality.
+ * compiles the script into a {@link ScriptPlan}, ignoring all comments, and runs the plan on the
+ * image handler.
  */
 public class SimpleScriptController implements ScriptController {
 
   private Readable input;
   private final ExtendedImageHandlerAdapter imageHandler;
   private final View view;
-  Map<String, Pair<CommandController, Function<String[], Void>>> commandToController;
+  private final boolean readAhead;
+  private final boolean optimize;
 
-  private SimpleScriptController(Readable input, ExtendedImageHandlerAdapter handler, View view) {
+  private SimpleScriptController(Readable input, ExtendedImageHandlerAdapter handler, View view,
+      boolean readAhead, boolean optimize) {
     this.input = input;
     this.imageHandler = handler;
     this.view = view;
+    this.readAhead = readAhead;
+    this.optimize = optimize;
   }
 
 
   /**
    * Factory method to create a SimpleScriptController based on the provided input. It determines
-   * whether to create the controller for CLI, file, or keyboard input.
+   * whether to create the controller for CLI, file, or keyboard input. A script file followed by
+   * {@code -optimize} runs without the commands whose results are never saved.
    *
    * @param input   array of strings representing the input type and additional arguments
    * @param handler image handler to process image manipulation commands
@@ -84,12 +68,14 @@ public class SimpleScriptController implements ScriptController {
    */
 
   public static SimpleScriptController createCLI(ExtendedImageHandlerAdapter handler, View view) {
-    return new SimpleScriptController(new InputStreamReader(System.in), handler, view);
+    return new SimpleScriptController(new InputStreamReader(System.in), handler, view, false,
+        false);
   }
 
 
   /**
-   * Creates a SimpleScriptController instance that reads input from a specified file.
+   * Creates a SimpleScriptController instance that reads input from a specified file. If the third
+   * element is {@code -optimize}, commands whose results are never saved are skipped.
    *
    * @param input   array where the second element is the filename to read input from
    * @param handler image handler to process image manipulation commands
@@ -103,7 +89,8 @@ public class SimpleScriptController implements ScriptController {
     String filename = input[1];
     try {
       FileReader fileReader = new FileReader(filename);
-      return new SimpleScriptController(fileReader, handler, view);
+      boolean optimize = input.length > 2 && input[2].equalsIgnoreCase("-optimize");
+      return new SimpleScriptController(fileReader, handler, view, true, optimize);
     } catch (FileNotFoundException e) {
       System.out.println("File not found: " + filename);
     }
@@ -123,139 +110,77 @@ public class SimpleScriptController implements ScriptController {
   public static SimpleScriptController createKeyboard(String input,
       ExtendedImageHandlerAdapter handler,
       View view) {
-    InputStream inputStream = new ByteArrayInputStream(input.getBytes());
-    return new SimpleScriptController(new InputStreamReader(inputStream), handler, view);
+    return createKeyboard(input, handler, view, false);
   }
 
-  private void initializeMap() {
-    commandToController = new HashMap<>();
-
-    commandToController.put("load", new Pair<>(new ImageLoader(), args -> {
-      view.viewLoad(args);
-      return null;
-    }));
-
-    commandToController.put("save", new Pair<>(new SaveImage(), args -> {
-      view.viewSave(args);
-      return null;
-    }));
-
-    commandToController.put("blur", new Pair<>(new BlurImage(), args -> {
-      view.viewBlur(args);
-      return null;
-    }));
-
-    commandToController.put("brighten", new Pair<>(new BrightenImage(), args -> {
-      view.viewBrighten(args);
-      return null;
-    }));
-
-    commandToController.put("sepia", new Pair<>(new ConvertToSepia(), args -> {
-      view.viewSepia(args);
-      return null;
-    }));
-
-    commandToController.put("horizontal-flip", new Pair<>(new FlipHorizontal(), args -> {
-      view.viewHorizontalFlip(args);
-      return null;
-    }));
-
-    commandToController.put("vertical-flip", new Pair<>(new FlipVertical(), args -> {
-      view.viewVerticalFlip(args);
-      return null;
-    }));
-
-    commandToController.put("rgb-combine", new Pair<>(new RGBCombine(), args -> {
-      view.viewRgbCombine(args);
-      return null;
-    }));
-
-    commandToController.put("rgb-split", new Pair<>(new RGBSplit(), args -> {
-      view.viewRgbSplit(args);
-      return null;
-    }));
-
-    commandToController.put("sharpen", new Pair<>(new SharpenImage(), args -> {
-      view.viewSharpen(args);
-      return null;
-    }));
-
-    commandToController.put("blue-component", new Pair<>(new VisualiseBlue(), args -> {
-      view.viewBlueComponent(args);
-      return null;
-    }));
-
-    commandToController.put("red-component", new Pair<>(new VisualiseRed(), args -> {
-      view.viewRedComponent(args);
-      return null;
-    }));
-
-    commandToController.put("green-component", new Pair<>(new VisualiseGreen(), args -> {
-      view.viewGreenComponent(args);
-      return null;
-    }));
-
-    commandToController.put("intensity-component", new Pair<>(new VisualiseIntensity(), args -> {
-      view.viewIntensityComponent(args);
-      return null;
-    }));
-
-    commandToController.put("value-component", new Pair<>(new VisualiseValue(), args -> {
-      view.viewValueComponent(args);
-      return null;
-    }));
-
-    commandToController.put("luma-component", new Pair<>(new VisualiseLuma(), args -> {
-      view.viewLumaComponent(args);
-      return null;
-    }));
-
-    commandToController.put("histogram", new Pair<>(new Histogram(), args -> {
-      view.viewHistogram(args);
-      return null;
-    }));
-
-    commandToController.put("color-correct", new Pair<>(new ColorCorrect(), args -> {
-      view.viewColorCorrect(args);
-      return null;
-    }));
-
-    commandToController.put("compress", new Pair<>(new Compress(), args -> {
-      view.viewCompress(args);
-      return null;
-    }));
-
-    commandToController.put("levels-adjust", new Pair<>(new LevelsAdjust(), args -> {
-      view.viewLevelsAdjust(args);
-      return null;
-    }));
-
-    commandToController.put("downscale", new Pair<>(new Downscale(), args -> {
-      view.viewDownscale(args);
-      return null;
-    }));
+  /**
+   * Creates a SimpleScriptController instance that reads input from a string, and optionally
+   * skips the commands whose results are never saved.
+   *
+   * @param input    input string containing commands to be processed
+   * @param handler  image handler to process image manipulation commands
+   * @param view     view for displaying results
+   * @param optimize true to skip the commands whose results are never saved
+   * @return new SimpleScriptController that processes the provided input string
+   */
 
+  public static SimpleScriptController createKeyboard(String input,
+      ExtendedImageHandlerAdapter handler,
+      View view, boolean optimize) {
+    InputStream inputStream = new ByteArrayInputStream(input.getBytes());
+    return new SimpleScriptController(new InputStreamReader(inputStream), handler, view, true,
+        optimize);
   }
 
+  /**
+   * Runs the script. Scripts read from a file or a string are read in full and compiled first, so
+   * that an invalid command is reported before any command runs, and so that the plan can fuse
+   * loads into the downscale or crop that follows them and decode the files of the next few loads
+   * ahead of time (see {@link ScriptPlan}). Saves are encoded in the background while the script
+   * goes on, and are all finished, with any errors reported, before the script is reported as
+   * processed. Commands typed at the console are compiled, run, and saved as soon as they are
+   * entered.
+   *
+   * <p>When optimizing, commands whose results cannot reach any save are left out before the
+   * script runs, and reported through the view. Their images are then never stored, and errors
+   * they would have raised when running are not reported.
+   */
   @Override
   public void processInput() {
-    initializeMap();
-    Scanner scanner = new Scanner(input);
-    while (scanner.hasNextLine()) {
-      String line = scanner.nextLine().trim();
-      if (line.isEmpty() || line.startsWith("#")) {
-        continue;
-      }
-      String[] tokens = line.split("\\s+");
-      CommandController commandController = commandToController.get(tokens[0]).getFirst();
+    try (SaveQueue saves = new SaveQueue()) {
+      runScript(new SaveImage(readAhead ? saves : null));
+      saves.flush();
+    }
+    view.printScriptProcessed();
+  }
 
-      if (commandController == null) {
+  /**
+   * Runs the commands of the script. An unknown command is reported through the view, and stops
+   * the script with an exception.
+   */
+  private void runScript(SaveImage saves) {
+    Scanner scanner = new Scanner(input);
+    List<String[]> script = new ArrayList<>();
+    for (String[] tokens = ScriptPlan.nextCommand(scanner); tokens != null;
+        tokens = ScriptPlan.nextCommand(scanner)) {
+      if (!ScriptPlan.isCommand(tokens[0])) {
         view.viewError(tokens);
-        return;
+        throw new IllegalArgumentException("Unknown command: " + tokens[0]);
+      }
+      if (readAhead) {
+        script.add(tokens);
+      } else {
+        ScriptPlan.compile(Collections.singletonList(tokens)).run(imageHandler, view, saves);
       }
-      commandController.execute(tokens, imageHandler);
-      commandToController.get(tokens[0]).getSecond().apply(tokens);
     }
-    view.printScriptProcessed();
+    ScriptPlan plan = ScriptPlan.compile(script);
+    if (optimize) {
+      List<String[]> skipped = new ArrayList<>();
+      plan = plan.withoutUnsavedResults(skipped);
+      if (!skipped.isEmpty()) {
+        view.viewSkipped(skipped);
+      }
+    }
+    plan.run(imageHandler, view, saves);
   }
 }
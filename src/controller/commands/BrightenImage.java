@@ -1,5 +1,6 @@
 package src.controller.commands;
 
+import src.controller.ScriptPlan;
 import src.model.ExtendedImageHandlerAdapter;
 
 /**
@@ -10,13 +11,6 @@ public class BrightenImage implements CommandController {
 
   @Override
   public void execute(String[] args, ExtendedImageHandlerAdapter handler) {
-    if (args.length != 4) {
-      throw new IllegalArgumentException("Wrong number of arguments");
-    }
-    try {
-      handler.brighten(args[2], args[3], Integer.parseInt(args[1]));
-    } catch (NumberFormatException e) {
-      throw new IllegalArgumentException("Invalid brightness");
-    }
+    ScriptPlan.execute("brighten", args, handler);
   }
 }
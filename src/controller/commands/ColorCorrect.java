@@ -1,5 +1,6 @@
 package src.controller.commands;
 
+import src.controller.ScriptPlan;
 import src.model.ExtendedImageHandlerAdapter;
 
 
@@ -12,18 +13,6 @@ public class ColorCorrect implements CommandController {
 
   @Override
   public void execute(String[] args, ExtendedImageHandlerAdapter handler) {
-    if (args.length != 3 && args.length != 5) {
-      throw new IllegalArgumentException("Wrong number of arguments");
-    } else {
-      if (args.length == 3) {
-        handler.colorCorrect(args[1], args[2]);
-      } else if (args.length == 5) {
-        if (args[3].equals("split")) {
-          handler.colorCorrectWithSplit(args[1], args[2], Integer.parseInt(args[4]));
-        } else {
-          throw new IllegalArgumentException("Invalid command");
-        }
-      }
-    }
+    ScriptPlan.execute("color-correct", args, handler);
   }
 }
@@ -1,5 +1,6 @@
 package src.controller.commands;
 
+import src.controller.ScriptPlan;
 import src.model.ExtendedImageHandlerAdapter;
 
 /**
@@ -10,16 +11,6 @@ public class Compress implements CommandController {
 
   @Override
   public void execute(String[] args, ExtendedImageHandlerAdapter handler) {
-    if (args.length != 4) {
-      throw new IllegalArgumentException("Wrong number of arguments");
-    }
-    try {
-      double percentage = Double.parseDouble(args[3]);
-      String imageName = args[1];
-      String modifiedImageName = args[2];
-      handler.compress(imageName, modifiedImageName, percentage);
-    } catch (NumberFormatException e) {
-      throw new IllegalArgumentException("Invalid compression percentage");
-    }
+    ScriptPlan.execute("compress", args, handler);
   }
 }
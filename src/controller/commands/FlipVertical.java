@@ -1,5 +1,6 @@
 package src.controller.commands;
 
+import src.controller.ScriptPlan;
 import src.model.ExtendedImageHandlerAdapter;
 
 /**
@@ -10,9 +11,6 @@ public class FlipVertical implements CommandController {
 
   @Override
   public void execute(String[] args, ExtendedImageHandlerAdapter handler) {
-    if (args.length != 3) {
-      throw new IllegalArgumentException("Wrong number of arguments");
-    }
-    handler.verticalFlip(args[1], args[2]);
+    ScriptPlan.execute("vertical-flip", args, handler);
   }
 }
@@ -1,5 +1,6 @@
 package src.controller.commands;
 
+import src.controller.ScriptPlan;
 import src.model.ExtendedImageHandlerAdapter;
 
 /**
@@ -11,10 +12,7 @@ public class Histogram implements CommandController {
 
   @Override
   public void execute(String[] args, ExtendedImageHandlerAdapter handler) {
-    if (args.length != 3) {
-      throw new IllegalArgumentException("Wrong number of arguments");
-    }
-    handler.histogram(args[1], args[2]);
+    ScriptPlan.execute("histogram", args, handler);
   }
 }
 
@@ -1,5 +1,6 @@
 package src.controller.commands;
 
+import src.controller.ScriptPlan;
 import src.model.ExtendedImageHandlerAdapter;
 
 
@@ -12,37 +13,6 @@ public class LevelsAdjust implements CommandController {
 
   @Override
   public void execute(String[] args, ExtendedImageHandlerAdapter handler) {
-    if (args.length != 6 && args.length != 8) {
-      throw new IllegalArgumentException("Wrong number of arguments for levels-adjust command");
-    } else if (args.length == 6) {
-      try {
-        int black = Integer.parseInt(args[1]);
-        int mid = Integer.parseInt(args[2]);
-        int white = Integer.parseInt(args[3]);
-        String imageName = args[4];
-        String destImageName = args[5];
-        handler.levelsAdjust(black, mid, white, imageName, destImageName);
-      } catch (NumberFormatException e) {
-        throw new IllegalArgumentException(
-            "Invalid level values: black, mid, and white must be integers");
-      }
-    } else if (args.length == 8) {
-      if (args[6].equals("split")) {
-        try {
-          int black = Integer.parseInt(args[1]);
-          int mid = Integer.parseInt(args[2]);
-          int white = Integer.parseInt(args[3]);
-          String imageName = args[4];
-          String destImageName = args[5];
-          handler.levelAdjustWithSplit(black, mid, white, imageName, destImageName,
-              Integer.parseInt(args[7]));
-        } catch (NumberFormatException e) {
-          throw new IllegalArgumentException(
-              "Invalid level values: black, mid, and white must be integers");
-        }
-      } else {
-        throw new IllegalArgumentException("Wrong number of arguments for levels-adjust command");
-      }
-    }
+    ScriptPlan.execute("levels-adjust", args, handler);
   }
 }
@@ -1,5 +1,6 @@
 package src.controller.commands;
 
+import src.controller.ScriptPlan;
 import src.model.ExtendedImageHandlerAdapter;
 
 /**
@@ -10,9 +11,6 @@ public class RGBCombine implements CommandController {
 
   @Override
   public void execute(String[] args, ExtendedImageHandlerAdapter handler) {
-    if (args.length != 5) {
-      throw new IllegalArgumentException("Wrong number of arguments");
-    }
-    handler.rgbCombine(args[1], args[2], args[3], args[4]);
+    ScriptPlan.execute("rgb-combine", args, handler);
   }
 }
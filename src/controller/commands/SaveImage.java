@@ -1,73 +1,116 @@
 package src.controller.commands;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.Scanner;
-import javax.imageio.ImageIO;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import src.controller.ScriptPlan;
+import src.controller.helper.SaveQueue;
 import src.model.ExtendedImageHandlerAdapter;
+import src.model.ImageEncoder;
 
 /**
  * SaveImage class checks if the command to save an image has required number of arguments and
- * subsequently passes control to model.
+ * subsequently passes control to model. When it is given a save queue, it only takes a snapshot of
+ * the image and leaves the encoding to the queue.
  */
 public class SaveImage implements CommandController {
 
-  @Override
-  public void execute(String[] args, ExtendedImageHandlerAdapter handler) {
-    if (args.length != 3) {
-      throw new IllegalArgumentException("Wrong number of arguments");
-    }
-    try {
-      OutputStream outputStream = handler.save(args[1]);
-      saveImage(outputStream, args[2]);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
-  private void saveImage(OutputStream outputStream, String filepath) throws IOException {
-    String data = outputStream.toString();
-    Scanner sc = new Scanner(data);
+  private final SaveQueue queue;
 
-    int width = sc.nextInt();
-    int height = sc.nextInt();
+  /**
+   * Constructs a command that saves each image before it returns.
+   */
+  public SaveImage() {
+    this(null);
+  }
 
-    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-    WritableRaster raster = image.getRaster();
+  /**
+   * Constructs a command that hands its saves to a queue.
+   *
+   * @param queue queue to run the saves on, or null to save before returning.
+   */
+  public SaveImage(SaveQueue queue) {
+    this.queue = queue;
+  }
 
-    int[] pixel = new int[3];
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        pixel[0] = sc.nextInt();
-        pixel[1] = sc.nextInt();
-        pixel[2] = sc.nextInt();
-        raster.setPixel(x, y, pixel);
-      }
-    }
+  @Override
+  public void execute(String[] args, ExtendedImageHandlerAdapter handler) {
+    ScriptPlan.execute("save", args, handler, this);
+  }
 
-    File output;
+  /**
+   * Gets the file a save command writes to. Relative paths are resolved against the `out`
+   * directory.
+   *
+   * @param filepath path given to the save command.
+   * @return the file the image is written to.
+   */
+  public static File outputFile(String filepath) {
     File filePathFile = new File(filepath);
-    if (filePathFile.isAbsolute()) {
-      output = filePathFile;
-    } else {
+    return filePathFile.isAbsolute() ? filePathFile : new File(new File("out"), filepath);
+  }
+
+  /**
+   * Saves an image to a file, or hands the save to the queue of this command. The format is given
+   * by the extension of the file; relative paths are resolved against the `out` directory.
+   *
+   * @param handler   handler holding the image.
+   * @param imageName name of the image to save.
+   * @param filepath  path of the file to write.
+   * @throws IOException if the image cannot be saved right away.
+   */
+  public void save(ExtendedImageHandlerAdapter handler, String imageName, String filepath)
+      throws IOException {
+    File output = outputFile(filepath);
+    if (!new File(filepath).isAbsolute()) {
       File outDir = new File("out");
       if (!outDir.exists() && !outDir.mkdir()) {
         throw new IOException("Failed to create the `out` directory.");
       }
-      output = new File(outDir, filepath);
     }
 
     String[] parts = filepath.split("\\.");
     String fileType = parts[parts.length - 1];
 
-    try {
-      ImageIO.write(image, fileType, output);
+    if (queue == null) {
+      writeFile(channel -> handler.write(imageName, fileType, channel), output);
+    } else {
+      ImageEncoder encoder = handler.encoder(imageName, fileType);
+      queue.submit(file(output), () -> writeFile(encoder, output));
+    }
+  }
+
+  /**
+   * Waits until the saves this command handed to its queue for a file are done, so that the file
+   * can be loaded.
+   *
+   * @param file path of the file, as given to a load.
+   */
+  public void awaitSaves(Path file) {
+    if (queue != null) {
+      queue.await(file(file.toFile()));
+    }
+  }
+
+  private static Path file(File file) {
+    return file.toPath().toAbsolutePath().normalize();
+  }
+
+  private static void writeFile(ImageEncoder encoder, File output) throws IOException {
+    boolean written = false;
+    try (FileChannel channel = FileChannel.open(output.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      encoder.writeTo(channel);
+      written = true;
     } catch (IOException e) {
       throw new IOException("Failed to save the image! Please check the file path and permissions.",
           e);
+    } finally {
+      if (!written) {
+        output.delete();
+      }
     }
   }
 
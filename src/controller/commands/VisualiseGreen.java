@@ -1,5 +1,6 @@
 package src.controller.commands;
 
+import src.controller.ScriptPlan;
 import src.model.ExtendedImageHandlerAdapter;
 
 /**
@@ -10,13 +11,6 @@ public class VisualiseGreen implements CommandController {
 
   @Override
   public void execute(String[] args, ExtendedImageHandlerAdapter handler) {
-    if (args.length < 3 || args.length > 4) {
-      throw new IllegalArgumentException("Wrong number of arguments");
-    }
-    if (args.length == 3) {
-      handler.greenComponent(args[1], args[2]);
-    } else {
-      handler.greenComponentWithMask(args[1], args[2], args[3]);
-    }
+    ScriptPlan.execute("green-component", args, handler);
   }
 }
@@ -1,5 +1,6 @@
 package src.controller.commands;
 
+import src.controller.ScriptPlan;
 import src.model.ExtendedImageHandlerAdapter;
 
 /**
@@ -10,12 +11,6 @@ public class VisualiseRed implements CommandController {
 
   @Override
   public void execute(String[] args, ExtendedImageHandlerAdapter handler) {
-    if (args.length < 3 || args.length > 4) {
-      throw new IllegalArgumentException("Wrong number of arguments");
-    } else if (args.length == 4) {
-      handler.redComponentWithMask(args[1], args[2], args[3]);
-    } else {
-      handler.redComponent(args[1], args[2]);
-    }
+    ScriptPlan.execute("red-component", args, handler);
   }
 }
@@ -0,0 +1,152 @@
+package src.controller.helper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs image saves on a small pool of background threads, so that a script can go on
+ * with its next command while the previous image is still being encoded. At most a fixed number of
+ * saves may be pending at once; a further save waits until one of them is done, which bounds the
+ * memory held by image snapshots. Saves to the same file run one after another, in the order
+ * they were submitted, so the last one wins; saves to different files run side by side. Errors
+ * are collected and reported by {@link #flush()}.
+ */
+public class SaveQueue implements AutoCloseable {
+
+  /**
+   * A save to run in the background.
+   */
+  public interface Save {
+
+    /**
+     * Writes the image.
+     *
+     * @throws IOException if the image cannot be written.
+     */
+    void run() throws IOException;
+  }
+
+  private static final AtomicInteger THREADS = new AtomicInteger();
+
+  private final int workers;
+  private final int capacity;
+  private final Semaphore pending;
+  private final List<Exception> errors = new ArrayList<>();
+  private final Map<Path, CompletableFuture<Void>> lastSaves = new ConcurrentHashMap<>();
+  private ExecutorService executor;
+
+  /**
+   * Constructs a queue with one worker per core, up to four, that holds at most twice as many
+   * pending saves as it has workers.
+   */
+  public SaveQueue() {
+    this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+  }
+
+  /**
+   * Constructs a queue with the given number of workers, that holds at most twice as many pending
+   * saves as it has workers.
+   *
+   * @param workers number of background threads.
+   */
+  public SaveQueue(int workers) {
+    this.workers = workers;
+    this.capacity = 2 * workers;
+    this.pending = new Semaphore(capacity);
+  }
+
+  /**
+   * Hands a save to the background threads. Waits while the queue is full. The save starts once
+   * every save submitted earlier for the same file is done.
+   *
+   * @param file absolute, normalized path of the file the save writes.
+   * @param save save to run.
+   */
+  public void submit(Path file, Save save) {
+    pending.acquireUninterruptibly();
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(workers, runnable -> {
+        Thread thread = new Thread(runnable, "image-save-" + THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    Runnable task = () -> {
+      try {
+        save.run();
+      } catch (IOException | RuntimeException e) {
+        synchronized (errors) {
+          errors.add(e);
+        }
+      } finally {
+        pending.release();
+      }
+    };
+    CompletableFuture<Void> previous = lastSaves.get(file);
+    CompletableFuture<Void> last = previous == null ? CompletableFuture.runAsync(task, executor)
+        : previous.thenRunAsync(task, executor);
+    lastSaves.put(file, last);
+    last.thenRun(() -> lastSaves.remove(file, last));
+  }
+
+  /**
+   * Waits until every save submitted for a file is done, so that the file can be read.
+   *
+   * @param file absolute, normalized path of the file.
+   */
+  public void await(Path file) {
+    CompletableFuture<Void> last = lastSaves.get(file);
+    if (last != null) {
+      last.join();
+    }
+  }
+
+  /**
+   * Waits until every submitted save is done, and reports the first error any of them hit. The
+   * other errors are attached to it as suppressed exceptions.
+   *
+   * @throws RuntimeException if a save failed.
+   */
+  public void flush() {
+    pending.acquireUninterruptibly(capacity);
+    pending.release(capacity);
+    RuntimeException failure = null;
+    synchronized (errors) {
+      for (Exception error : errors) {
+        if (failure == null) {
+          failure = error instanceof RuntimeException ? (RuntimeException) error
+              : new RuntimeException(error);
+        } else {
+          failure.addSuppressed(error);
+        }
+      }
+      errors.clear();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Waits until every submitted save is done and stops the background threads. Errors that were
+   * not reported by {@link #flush()} are dropped.
+   */
+  @Override
+  public void close() {
+    pending.acquireUninterruptibly(capacity);
+    pending.release(capacity);
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package src.model;
+
+import java.util.Arrays;
+
+/**
+ * Represents a linear channel mix applied to every pixel, such as sepia or luma. Each output
+ * channel is a weighted sum of the input red, green and blue values, plus an optional constant
+ * offset (a 3x4 matrix). The weights are precomputed as 16.16 fixed-point rows of 256 entries per
+ * input channel, so applying the matrix costs three table reads and two integer additions per
+ * output channel and allocates nothing per pixel.
+ *
+ * <p>Results are identical to evaluating the matrix in double precision and truncating. The rare
+ * sums that land within rounding distance of a whole number are re-evaluated in double precision.
+ */
+public final class ColorMatrix {
+
+  private static final int SHIFT = 16;
+  private static final int ONE = 1 << SHIFT;
+  private static final int FRACTION_MASK = ONE - 1;
+  private static final int MARGIN = 4;
+  private static final double MAX_COEFFICIENT = 16;
+  private static final double MAX_OFFSET = 4096;
+
+  /**
+   * Classic sepia tone matrix.
+   */
+  public static final ColorMatrix SEPIA = new ColorMatrix(new double[][]{
+      {0.393, 0.769, 0.189},
+      {0.349, 0.686, 0.168},
+      {0.272, 0.534, 0.131}
+  });
+
+  /**
+   * Greyscale matrix that writes the luma of the pixel to every channel.
+   */
+  public static final ColorMatrix LUMA = new ColorMatrix(new double[][]{
+      {0.2126, 0.7152, 0.0722},
+      {0.2126, 0.7152, 0.0722},
+      {0.2126, 0.7152, 0.0722}
+  });
+
+  private final double[][] matrix;
+  private final int[][] rows;
+  private final int[] offsets;
+
+  /**
+   * Constructs a ColorMatrix from a 3x3 matrix, or a 3x4 matrix whose last column is a constant
+   * offset added to each output channel.
+   *
+   * @param matrix row-major matrix; row i computes output channel i (red, green, blue).
+   * @throws IllegalArgumentException if the matrix does not have 3 rows of 3 or 4 finite values, or
+   *                                  if a weight or offset is too large to mix 8-bit channels.
+   */
+  public ColorMatrix(double[][] matrix) {
+    if (matrix == null || matrix.length != 3) {
+      throw new IllegalArgumentException("Color matrix must have 3 rows");
+    }
+    int columns = matrix[0].length;
+    if (columns != 3 && columns != 4) {
+      throw new IllegalArgumentException("Color matrix must have 3 or 4 columns");
+    }
+    this.matrix = new double[3][4];
+    this.rows = new int[9][256];
+    this.offsets = new int[3];
+    for (int out = 0; out < 3; out++) {
+      if (matrix[out].length != columns) {
+        throw new IllegalArgumentException("All rows of the color matrix must have equal length");
+      }
+      for (int in = 0; in < columns; in++) {
+        double value = matrix[out][in];
+        double limit = in < 3 ? MAX_COEFFICIENT : MAX_OFFSET;
+        if (Double.isNaN(value) || Math.abs(value) > limit) {
+          throw new IllegalArgumentException("Color matrix value out of range: " + value);
+        }
+        this.matrix[out][in] = value;
+      }
+      for (int in = 0; in < 3; in++) {
+        for (int v = 0; v < 256; v++) {
+          rows[out * 3 + in][v] = (int) Math.round(this.matrix[out][in] * v * ONE);
+        }
+      }
+      offsets[out] = (int) Math.round(this.matrix[out][3] * ONE);
+    }
+  }
+
+  /**
+   * Mixes a single packed 0xRRGGBB pixel.
+   *
+   * @param rgb packed pixel.
+   * @return the mixed packed pixel.
+   */
+  public int apply(int rgb) {
+    int r = (rgb >> 16) & 0xFF;
+    int g = (rgb >> 8) & 0xFF;
+    int b = rgb & 0xFF;
+    return (channel(0, r, g, b) << 16) | (channel(1, r, g, b) << 8) | channel(2, r, g, b);
+  }
+
+  /**
+   * Mixes a range of packed pixels. Source and destination may be the same array.
+   *
+   * @param source      buffer of packed pixels to read.
+   * @param destination buffer to write the mixed pixels to.
+   * @param from        first index to mix (inclusive).
+   * @param to          last index to mix (exclusive).
+   */
+  public void apply(int[] source, int[] destination, int from, int to) {
+    for (int i = from; i < to; i++) {
+      destination[i] = apply(source[i]);
+    }
+  }
+
+  /**
+   * Mixes every pixel of an image.
+   *
+   * @param image image to mix.
+   * @return a new image holding the mixed pixels.
+   */
+  public PackedImage apply(Image image) {
+    PackedImage source = PackedImage.of(image);
+    int[] result = new int[source.getWidth() * source.getHeight()];
+    apply(source.getData(), result, 0, result.length);
+    return new PackedImage(source.getWidth(), source.getHeight(), result);
+  }
+
+  private int channel(int out, int r, int g, int b) {
+    int base = out * 3;
+    int sum = rows[base][r] + rows[base + 1][g] + rows[base + 2][b] + offsets[out];
+    int fraction = sum & FRACTION_MASK;
+    if (fraction <= MARGIN || fraction >= ONE - MARGIN) {
+      return exactChannel(out, r, g, b);
+    }
+    return Math.min(255, Math.max(0, sum >> SHIFT));
+  }
+
+  /**
+   * Evaluates one output channel in double precision. Used for sums too close to a whole number for
+   * the fixed-point result to be trusted.
+   *
+   * @param out output channel index.
+   * @param r   red input value.
+   * @param g   green input value.
+   * @param b   blue input value.
+   * @return the output channel value, clamped to 0-255.
+   */
+  int exactChannel(int out, int r, int g, int b) {
+    double[] row = matrix[out];
+    double value = row[0] * r + row[1] * g + row[2] * b + row[3];
+    return (int) Math.max(0, Math.min(255, value));
+  }
+
+  /**
+   * Gets the double precision weights of one output channel.
+   *
+   * @param out output channel index.
+   * @return the 3 input weights followed by the constant offset.
+   */
+  double[] getRow(int out) {
+    return matrix[out];
+  }
+
+  /**
+   * Gets a string that identifies the values of this matrix, for the result cache.
+   *
+   * @return the fingerprint of the matrix.
+   */
+  String fingerprint() {
+    return Arrays.deepToString(matrix);
+  }
+}
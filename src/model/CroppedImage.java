@@ -0,0 +1,130 @@
+package src.model;
+
+/**
+ * Represents a rectangle of a packed image without copying its pixels. The crop reads straight
+ * from the pixel buffer of its parent, so cropping costs the same whatever the size of the image.
+ * Operations that need a buffer of their own get one through {@link PackedImage#of(Image)}, which
+ * copies only the rows of the rectangle. The copy is kept with the crop for as long as the parent
+ * keeps its version, so hashing a crop for the result cache and then computing on it copies once.
+ *
+ * <p>The parent must not change while the crop is in use: the handler never updates an image in
+ * place, or returns its buffer to the pool, while a stored crop still refers to it.
+ */
+final class CroppedImage implements Image {
+
+  private final PackedImage parent;
+  private final int left;
+  private final int top;
+  private final int width;
+  private final int height;
+  private PackedImage packed;
+  private long packedVersion;
+
+  private CroppedImage(PackedImage parent, int left, int top, int width, int height) {
+    this.parent = parent;
+    this.left = left;
+    this.top = top;
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Crops an image. Cropping a crop gives a crop of the same parent, so crops never nest.
+   *
+   * @param image  image to crop.
+   * @param left   x-coord of the left edge of the rectangle.
+   * @param top    y-coord of the top edge of the rectangle.
+   * @param width  width of the rectangle.
+   * @param height height of the rectangle.
+   * @return a crop sharing the pixels of the image.
+   * @throws IllegalArgumentException if the rectangle is empty or not inside the image.
+   */
+  static CroppedImage of(Image image, int left, int top, int width, int height) {
+    validate(image.getWidth(), image.getHeight(), left, top, width, height);
+    if (image instanceof CroppedImage) {
+      CroppedImage crop = (CroppedImage) image;
+      return new CroppedImage(crop.parent, crop.left + left, crop.top + top, width, height);
+    }
+    return new CroppedImage(PackedImage.of(image), left, top, width, height);
+  }
+
+  /**
+   * Checks that a crop rectangle is not empty and lies inside an image of the given size.
+   *
+   * @param imageWidth  width of the image.
+   * @param imageHeight height of the image.
+   * @param left        x-coord of the left edge of the rectangle.
+   * @param top         y-coord of the top edge of the rectangle.
+   * @param width       width of the rectangle.
+   * @param height      height of the rectangle.
+   * @throws IllegalArgumentException if the rectangle is empty or not inside the image.
+   */
+  static void validate(int imageWidth, int imageHeight, int left, int top, int width,
+      int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Crop size must be positive.");
+    }
+    if (left < 0 || top < 0 || left > imageWidth - width || top > imageHeight - height) {
+      throw new IllegalArgumentException("Crop region is outside the image.");
+    }
+  }
+
+  /**
+   * Gets the image whose pixels this crop reads.
+   *
+   * @return the parent image.
+   */
+  PackedImage getParent() {
+    return parent;
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public Pixel getPixel(int x, int y) {
+    if (x < 0 || y < 0 || x >= width || y >= height) {
+      throw new IllegalArgumentException("Invalid pixel coordinates");
+    }
+    return parent.getPixel(left + x, top + y);
+  }
+
+  @Override
+  public Pixel[][] getImage() {
+    Pixel[][] pixels = new Pixel[width][height];
+    for (int x = 0; x < width; x++) {
+      for (int y = 0; y < height; y++) {
+        pixels[x][y] = getPixel(x, y);
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Gets the pixels of this crop as a packed image. They are copied one row at a time at most once
+   * per version of the parent; callers must not change the packed image they get.
+   *
+   * @return a packed image holding the pixels of the crop.
+   */
+  PackedImage toPackedImage() {
+    if (packed != null && packedVersion == parent.getVersion()) {
+      return packed;
+    }
+    int[] source = parent.getData();
+    int parentWidth = parent.getWidth();
+    int[] data = new int[width * height];
+    for (int y = 0; y < height; y++) {
+      System.arraycopy(source, (top + y) * parentWidth + left, data, y * width, width);
+    }
+    packed = new PackedImage(width, height, data);
+    packedVersion = parent.getVersion();
+    return packed;
+  }
+}
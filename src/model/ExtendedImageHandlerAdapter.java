@@ -1,5 +1,8 @@
 package src.model;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * This interface extends the ImageHandlerAdapter interface and provides additional image processing
  * methods.
@@ -16,6 +19,47 @@ public interface ExtendedImageHandlerAdapter extends ImageHandlerAdapter {
    */
   void downscale(String imageName, String modifiedImageName, int newWidth, int newHeight);
 
+  /**
+   * Loads an image file and scales it down, storing only the downscaled image. The result is the
+   * same as loading the file and downscaling it, but the decoder may skip the parts of the file
+   * that the downscale does not read.
+   *
+   * @param path              The path of the image file.
+   * @param modifiedImageName The name of the resulting downscaled image.
+   * @param newWidth          The new width of the downscaled image.
+   * @param newHeight         The new height of the downscaled image.
+   * @throws IOException If the file cannot be read or decoded.
+   */
+  void loadDownscaled(Path path, String modifiedImageName, int newWidth, int newHeight)
+      throws IOException;
+
+  /**
+   * Crops the image to a rectangle.
+   *
+   * @param imageName         The name of the image to be cropped.
+   * @param modifiedImageName The name of the resulting cropped image.
+   * @param x                 The x-coord of the left edge of the rectangle.
+   * @param y                 The y-coord of the top edge of the rectangle.
+   * @param width             The width of the rectangle.
+   * @param height            The height of the rectangle.
+   */
+  void crop(String imageName, String modifiedImageName, int x, int y, int width, int height);
+
+  /**
+   * Loads a rectangle of an image file. The result is the same as loading the file and cropping
+   * it, but the rest of the image is never stored.
+   *
+   * @param path      The path of the image file.
+   * @param imageName The name of the resulting cropped image.
+   * @param x         The x-coord of the left edge of the rectangle.
+   * @param y         The y-coord of the top edge of the rectangle.
+   * @param width     The width of the rectangle.
+   * @param height    The height of the rectangle.
+   * @throws IOException If the file cannot be read or decoded.
+   */
+  void loadRegion(Path path, String imageName, int x, int y, int width, int height)
+      throws IOException;
+
   /**
    * Applies a blur effect to the image using a mask.
    *
@@ -1,5 +1,7 @@
 package src.model;
 
+import java.nio.file.Path;
+
 /**
  * This class adds to the previous functionalities in the MockImageHandlerAdapter and is used
  * primarily for testing purpose.
@@ -25,6 +27,25 @@ public class ExtendedMock extends MockImageHandlerAdapter implements ExtendedIma
         "Input: " + imageName + " " + modifiedImageName + " " + newWidth + " " + newHeight + "\n");
   }
 
+  @Override
+  public void loadDownscaled(Path path, String modifiedImageName, int newWidth, int newHeight) {
+    log.append("Input: " + path + " " + modifiedImageName + " " + newWidth + " " + newHeight
+        + "\n");
+  }
+
+  @Override
+  public void crop(String imageName, String modifiedImageName, int x, int y, int width,
+      int height) {
+    log.append("Input: " + imageName + " " + modifiedImageName + " " + x + " " + y + " " + width
+        + " " + height + "\n");
+  }
+
+  @Override
+  public void loadRegion(Path path, String imageName, int x, int y, int width, int height) {
+    log.append("Input: " + path + " " + imageName + " " + x + " " + y + " " + width + " " + height
+        + "\n");
+  }
+
   @Override
   public void blurWithMask(String imageName, String maskedImageName, String modifiedImageName) {
     log.append("Input: " + imageName + " " + maskedImageName + " " + modifiedImageName + "\n");
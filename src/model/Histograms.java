@@ -0,0 +1,68 @@
+package src.model;
+
+import java.util.stream.IntStream;
+
+/**
+ * Counts the red, green and blue histograms of packed pixel buffers. Large images are split into
+ * bands of rows that are counted in parallel, each into its own private bins, and the bins are
+ * added together at the end, so workers never write to shared counters.
+ */
+final class Histograms {
+
+  private static final int PARALLEL_THRESHOLD = 1 << 18;
+  private static final int BANDS_PER_WORKER = 4;
+
+  private Histograms() {
+  }
+
+  /**
+   * Counts the histograms of a row-major buffer of packed 0xRRGGBB pixels.
+   *
+   * @param data   pixel buffer.
+   * @param width  width of the image in pixels.
+   * @param height height of the image in pixels.
+   * @return histograms of 256 bins each, for red, green and blue.
+   */
+  static int[][] count(int[] data, int width, int height) {
+    int workers = Runtime.getRuntime().availableProcessors();
+    if (workers == 1 || (long) width * height < PARALLEL_THRESHOLD) {
+      return countRange(data, 0, width * height);
+    }
+    int bands = Math.min(height, workers * BANDS_PER_WORKER);
+    return IntStream.range(0, bands).parallel()
+        .mapToObj(band -> countRange(data, (int) ((long) height * band / bands) * width,
+            (int) ((long) height * (band + 1) / bands) * width))
+        .reduce(Histograms::merge)
+        .orElseGet(() -> new int[3][256]);
+  }
+
+  /**
+   * Counts the histograms of a range of a pixel buffer into new bins.
+   *
+   * @param data pixel buffer.
+   * @param from first index to count.
+   * @param to   index after the last one to count.
+   * @return histograms of 256 bins each, for red, green and blue.
+   */
+  static int[][] countRange(int[] data, int from, int to) {
+    int[] red = new int[256];
+    int[] green = new int[256];
+    int[] blue = new int[256];
+    for (int i = from; i < to; i++) {
+      int rgb = data[i];
+      red[(rgb >> 16) & 0xFF]++;
+      green[(rgb >> 8) & 0xFF]++;
+      blue[rgb & 0xFF]++;
+    }
+    return new int[][]{red, green, blue};
+  }
+
+  private static int[][] merge(int[][] into, int[][] from) {
+    for (int channel = 0; channel < 3; channel++) {
+      for (int value = 0; value < 256; value++) {
+        into[channel][value] += from[channel][value];
+      }
+    }
+    return into;
+  }
+}
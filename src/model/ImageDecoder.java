@@ -0,0 +1,134 @@
+package src.model;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes image files through ImageIO into pooled pixel buffers. When the reader can produce
+ * packed RGB ints, it decodes straight into the pixel buffer of the new image. Otherwise it decodes
+ * into a scratch image that is kept, as long as memory allows, and reused for the next file of the
+ * same size and type; the rows are then copied from its data buffer by {@link Rasters}.
+ */
+final class ImageDecoder {
+
+  /**
+   * Chooses the read parameters for a file once the size of its image is known, such as a source
+   * subsampling when only some rows and columns of the image are needed.
+   */
+  interface ReadPlan {
+
+    /**
+     * Configures the parameters to read the image with.
+     *
+     * @param width  full width of the image in the file.
+     * @param height full height of the image in the file.
+     * @param param  parameters to configure.
+     */
+    void configure(int width, int height, ImageReadParam param);
+  }
+
+  private final PixelBufferPool pool;
+  private SoftReference<BufferedImage> scratch = new SoftReference<>(null);
+
+  /**
+   * Constructs a decoder that borrows the pixel buffers of decoded images from the given pool.
+   *
+   * @param pool pixel buffer pool of the handler.
+   */
+  ImageDecoder(PixelBufferPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Decodes the first image of a file.
+   *
+   * @param path path of the image file.
+   * @return the decoded image, with a pixel buffer borrowed from the pool.
+   * @throws IOException              if the file cannot be read or decoded.
+   * @throws IllegalArgumentException if no ImageIO reader supports the file.
+   */
+  PackedImage decode(Path path) throws IOException {
+    return decode(path, (width, height, param) -> {
+    });
+  }
+
+  /**
+   * Decodes the first image of a file with read parameters chosen by a plan. Only the rows and
+   * columns selected by the source region and subsampling of the parameters are decoded.
+   *
+   * @param path path of the image file.
+   * @param plan plan choosing the read parameters.
+   * @return the decoded image, with a pixel buffer borrowed from the pool.
+   * @throws IOException              if the file cannot be read or decoded.
+   * @throws IllegalArgumentException if no ImageIO reader supports the file.
+   */
+  PackedImage decode(Path path, ReadPlan plan) throws IOException {
+    if (!Files.isReadable(path)) {
+      throw new IIOException("Can't read input file!");
+    }
+    try (ImageInputStream input = ImageIO.createImageInputStream(path.toFile())) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        throw new IllegalArgumentException("Unsupported image file: " + path);
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(input, true, true);
+        return decode(reader, plan);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  private PackedImage decode(ImageReader reader, ReadPlan plan) throws IOException {
+    ImageReadParam param = reader.getDefaultReadParam();
+    plan.configure(reader.getWidth(0), reader.getHeight(0), param);
+    Rectangle region = param.getSourceRegion() != null ? param.getSourceRegion()
+        : new Rectangle(reader.getWidth(0), reader.getHeight(0));
+    int width = sampledSize(region.width, param.getSubsamplingXOffset(),
+        param.getSourceXSubsampling());
+    int height = sampledSize(region.height, param.getSubsamplingYOffset(),
+        param.getSourceYSubsampling());
+    PackedImage image = new PackedImage(width, height, pool.borrow(width * height), true);
+    ImageTypeSpecifier type = null;
+    for (Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0); types.hasNext(); ) {
+      ImageTypeSpecifier candidate = types.next();
+      if (candidate.getBufferedImageType() == BufferedImage.TYPE_INT_RGB) {
+        param.setDestination(image.asBufferedImage());
+        reader.read(0, param);
+        return image;
+      }
+      if (type == null) {
+        type = candidate;
+      }
+    }
+    if (type != null && type.getBufferedImageType() != BufferedImage.TYPE_CUSTOM) {
+      BufferedImage destination = scratch.get();
+      if (destination == null || destination.getWidth() != width
+          || destination.getHeight() != height
+          || destination.getType() != type.getBufferedImageType()) {
+        destination = type.createBufferedImage(width, height);
+        scratch = new SoftReference<>(destination);
+      }
+      param.setDestination(destination);
+    }
+    Rasters.unpack(reader.read(0, param), image.getData());
+    return image;
+  }
+
+  private static int sampledSize(int size, int offset, int period) {
+    return (size - offset + period - 1) / period;
+  }
+}
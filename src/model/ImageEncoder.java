@@ -0,0 +1,20 @@
+package src.model;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encodes a snapshot of an image in a fixed format. The snapshot is taken when the encoder is
+ * created, so the encoder may run later, on another thread, while the image it was taken from
+ * keeps changing or is replaced.
+ */
+public interface ImageEncoder {
+
+  /**
+   * Encodes the snapshot and writes it to a channel.
+   *
+   * @param output channel to write the encoded image to; it is not closed.
+   * @throws IOException if an error occurs while writing.
+   */
+  void writeTo(WritableByteChannel output) throws IOException;
+}
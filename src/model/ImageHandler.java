@@ -4,6 +4,8 @@ import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 
 /**
  * This interface handles image manipulation and processing operations. it defines methods for
@@ -13,8 +15,48 @@ public interface ImageHandler {
 
   void loadImagePixels(BufferedImage image, String imageName) throws IOException;
 
+  /**
+   * Loads an image file in any format ImageIO can read.
+   *
+   * @param path      path of the image file.
+   * @param imageName name to store the image under.
+   * @throws IOException if the file cannot be read or decoded.
+   */
+  void loadImagePixels(Path path, String imageName) throws IOException;
+
   void loadImagePixelsFromPPM(BufferedReader reader, String imageName) throws IOException;
 
+  /**
+   * Loads an ASCII (P3) or binary (P6) PPM file.
+   *
+   * @param path      path of the PPM file.
+   * @param imageName name to store the image under.
+   * @throws IOException if the file cannot be read.
+   */
+  void loadImagePixelsFromPPM(Path path, String imageName) throws IOException;
+
+  /**
+   * Tells the handler that a file is about to be loaded, so it may start decoding it in the
+   * background. This is only a hint: loading the file later gives the same result either way.
+   *
+   * @param path path of the image or PPM file.
+   */
+  void prefetch(Path path);
+
+  /**
+   * Drops the files prefetched but not loaded, cancelling any decoding still in progress. Loads of
+   * those files afterwards read the files themselves.
+   */
+  void cancelPrefetches();
+
+  /**
+   * Checks whether an image is stored under a name.
+   *
+   * @param imageName name of the image.
+   * @return true if there is an image with the name.
+   */
+  boolean hasImage(String imageName);
+
   /**
    * Saves processed image.
    *
@@ -22,6 +64,32 @@ public interface ImageHandler {
    */
   OutputStream save(String imageName) throws IOException;
 
+  /**
+   * Encodes the specified image in the given format and writes it to a channel. The encoder reads
+   * the pixels straight from the stored image, without the text form produced by save.
+   *
+   * @param imageName name of the image to be written.
+   * @param format    informal name of the format: png, jpg and the other ImageIO formats, ppm
+   *                  for binary (P6) PPM, or p3 for ASCII (P3) PPM.
+   * @param output    channel to write the encoded image to; it is not closed.
+   * @throws IOException if an error occurs while writing.
+   * @throws IllegalArgumentException if no image is found with the specified name or the format is
+   *                                  not supported.
+   */
+  void write(String imageName, String format, WritableByteChannel output) throws IOException;
+
+  /**
+   * Takes a snapshot of the specified image for encoding in the given format. Changes made to the
+   * image afterwards do not reach the snapshot, so it can be encoded later, on another thread.
+   *
+   * @param imageName name of the image to be written.
+   * @param format    informal name of the format, as for {@link #write}.
+   * @return an encoder that writes the snapshot.
+   * @throws IllegalArgumentException if no image is found with the specified name or the format is
+   *                                  not supported.
+   */
+  ImageEncoder encoder(String imageName, String format);
+
   /**
    * Extracts the blue component from specified image and creates a new Image object for it.
    *
@@ -96,6 +164,16 @@ public interface ImageHandler {
    */
   void sepia(String imageName, String modifiedImageName);
 
+  /**
+   * Mixes the channels of every pixel of the specified image through a color matrix and creates a
+   * new Image object for it.
+   *
+   * @param imageName         name of the source image.
+   * @param modifiedImageName name of the new image object after mixing the channels.
+   * @param matrix            3x3 or 3x4 color matrix to apply.
+   */
+  void applyColorMatrix(String imageName, String modifiedImageName, ColorMatrix matrix);
+
   /**
    * Brightens the specified image by a given value and creates a new Image object for it.
    *
@@ -105,6 +183,16 @@ public interface ImageHandler {
    */
   void brighten(String imageName, String modifiedImageName, int value);
 
+  /**
+   * Maps every pixel of the specified image through a lookup table and creates a new Image object
+   * for it. Tables for several tonal operations can be composed first so they run in one pass.
+   *
+   * @param imageName         name of the source image.
+   * @param modifiedImageName name of the new image object after applying the table.
+   * @param table             per-channel lookup table to apply.
+   */
+  void applyLookupTable(String imageName, String modifiedImageName, LookupTable table);
+
   /**
    * Applies a blur effect to the specified image and creates a new Image object for it.
    *
@@ -0,0 +1,229 @@
+package src.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The map of stored images of a handler. Packed images are stored by content: when an image is
+ * stored whose pixels equal those of an image already stored under another name, the new name
+ * refers to the stored image and the new copy is dropped, so repeated loads of the same file, or
+ * operations that reproduce an existing image, take no extra memory. Images are found by the hash
+ * of their pixels and confirmed by comparing the pixels, so different images are never merged.
+ *
+ * <p>Each stored image counts the names that refer to it, directly or through a crop. Once the
+ * count drops to zero, because every such name was overwritten or removed, the pixel buffer the
+ * image borrowed from the pool is returned to the pool, so that an application that keeps
+ * replacing the same image (such as the GUI with its current image) reuses the same few buffers
+ * instead of allocating new ones. Only buffers borrowed by the handler itself are returned; images
+ * created elsewhere are left alone.
+ *
+ * <p>An image shared by several names is never changed in place: the handler only updates images
+ * that a single name refers to (see {@link SimpleImageHandler#inPlaceTarget}). An image taken from
+ * the store is only valid until it is overwritten or removed.
+ *
+ * <p>The store wraps a plain map of names to images. Every way of changing it, including the
+ * default methods of {@link Map}, setting the value of an entry and removing through an iterator,
+ * goes through {@link #put} and {@link #remove}, so the reference counts always hold.
+ */
+final class ImageStore extends AbstractMap<String, Image> {
+
+  private final Map<String, Image> images = new HashMap<>();
+  private final PixelBufferPool pool;
+  private final Map<Image, Integer> references = new IdentityHashMap<>();
+  private final Map<String, List<PackedImage>> contents = new HashMap<>();
+  private final Map<PackedImage, String> contentKeys = new IdentityHashMap<>();
+  private final Set<Entry<String, Image>> entries = new Entries();
+
+  /**
+   * Constructs an empty store that returns buffers to the given pool.
+   *
+   * @param pool pool of the handler owning this store.
+   */
+  ImageStore(PixelBufferPool pool) {
+    this.pool = pool;
+  }
+
+  @Override
+  public Image put(String name, Image image) {
+    Image stored = image instanceof PackedImage ? deduplicate((PackedImage) image) : image;
+    if (stored != image) {
+      ((PackedImage) image).release(pool);
+    }
+    Image previous = images.put(name, stored);
+    retain(stored);
+    release(previous);
+    return previous;
+  }
+
+  @Override
+  public Image get(Object name) {
+    return images.get(name);
+  }
+
+  @Override
+  public boolean containsKey(Object name) {
+    return images.containsKey(name);
+  }
+
+  @Override
+  public Image remove(Object name) {
+    if (!images.containsKey(name)) {
+      return null;
+    }
+    Image previous = images.remove(name);
+    release(previous);
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    List<Image> stored = new ArrayList<>(images.values());
+    images.clear();
+    for (Image image : stored) {
+      release(image);
+    }
+  }
+
+  @Override
+  public Set<Entry<String, Image>> entrySet() {
+    return entries;
+  }
+
+  /**
+   * Counts the names that refer to an image, directly or through a stored crop of it.
+   *
+   * @param image image to look for.
+   * @return the number of references; 0 if the image is not stored.
+   */
+  int references(Image image) {
+    return references.getOrDefault(image, 0);
+  }
+
+  /**
+   * Gets the stored image with the same pixels as the given one, or the given image itself if no
+   * such image is stored. Images changed in place since they were stored are filed again under
+   * their new content.
+   */
+  private PackedImage deduplicate(PackedImage image) {
+    if (references.containsKey(image)) {
+      return image;
+    }
+    String key = contentKey(image);
+    List<PackedImage> candidates = contents.get(key);
+    if (candidates != null) {
+      int size = image.getWidth() * image.getHeight();
+      for (PackedImage candidate : new ArrayList<>(candidates)) {
+        if (!contentKey(candidate).equals(key)) {
+          unfile(candidate);
+          file(candidate);
+        } else if (Arrays.equals(candidate.getData(), 0, size, image.getData(), 0, size)) {
+          return candidate;
+        }
+      }
+    }
+    return image;
+  }
+
+  private static String contentKey(PackedImage image) {
+    return image.getWidth() + "x" + image.getHeight() + ":" + image.getContentHash();
+  }
+
+  private void retain(Image image) {
+    if (references.merge(image, 1, Integer::sum) > 1) {
+      return;
+    }
+    if (image instanceof CroppedImage) {
+      retain(((CroppedImage) image).getParent());
+    } else if (image instanceof PackedImage) {
+      file((PackedImage) image);
+    }
+  }
+
+  private void release(Image image) {
+    if (image == null) {
+      return;
+    }
+    Integer count = references.get(image);
+    if (count > 1) {
+      references.put(image, count - 1);
+      return;
+    }
+    references.remove(image);
+    if (image instanceof CroppedImage) {
+      release(((CroppedImage) image).getParent());
+    } else if (image instanceof PackedImage) {
+      unfile((PackedImage) image);
+      ((PackedImage) image).release(pool);
+    }
+  }
+
+  private void file(PackedImage image) {
+    String key = contentKey(image);
+    contentKeys.put(image, key);
+    contents.computeIfAbsent(key, k -> new ArrayList<>(1)).add(image);
+  }
+
+  private void unfile(PackedImage image) {
+    String key = contentKeys.remove(image);
+    List<PackedImage> candidates = contents.get(key);
+    if (candidates != null) {
+      candidates.removeIf(candidate -> candidate == image);
+      if (candidates.isEmpty()) {
+        contents.remove(key);
+      }
+    }
+  }
+
+  /**
+   * The entries of the store. Setting the value of an entry stores the image under its name, and
+   * removing an entry through the iterator releases its image.
+   */
+  private final class Entries extends AbstractSet<Entry<String, Image>> {
+
+    @Override
+    public int size() {
+      return images.size();
+    }
+
+    @Override
+    public Iterator<Entry<String, Image>> iterator() {
+      Iterator<Entry<String, Image>> iterator = images.entrySet().iterator();
+      return new Iterator<>() {
+        private Entry<String, Image> last;
+
+        @Override
+        public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        @Override
+        public Entry<String, Image> next() {
+          String name = iterator.next().getKey();
+          last = new SimpleEntry<>(name, images.get(name)) {
+            @Override
+            public Image setValue(Image image) {
+              super.setValue(image);
+              return put(name, image);
+            }
+          };
+          return last;
+        }
+
+        @Override
+        public void remove() {
+          Image image = images.get(last.getKey());
+          iterator.remove();
+          release(image);
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,235 @@
+package src.model;
+
+/**
+ * Represents a tonal operation as three 256-entry tables, one per channel. Any operation whose
+ * output channel value depends only on the same input channel value (brighten, levels adjust,
+ * color correction, ...) can be compiled to a LookupTable once and then applied with a single
+ * table lookup per channel. Consecutive tables can be composed into one, so a chain of tonal
+ * operations still costs a single pass over the pixels.
+ */
+public final class LookupTable {
+
+  private final int[] red;
+  private final int[] green;
+  private final int[] blue;
+
+  /**
+   * Constructs a LookupTable from the given per-channel tables. The tables are copied.
+   *
+   * @param red   256-entry table for the red channel.
+   * @param green 256-entry table for the green channel.
+   * @param blue  256-entry table for the blue channel.
+   * @throws IllegalArgumentException if a table does not have 256 entries in the range 0-255.
+   */
+  public LookupTable(int[] red, int[] green, int[] blue) {
+    this.red = validate(red);
+    this.green = validate(green);
+    this.blue = validate(blue);
+  }
+
+  private static int[] validate(int[] table) {
+    if (table == null || table.length != 256) {
+      throw new IllegalArgumentException("Lookup tables must have exactly 256 entries");
+    }
+    for (int value : table) {
+      if (value < 0 || value > 255) {
+        throw new IllegalArgumentException("Lookup table values must be between 0 and 255");
+      }
+    }
+    return table.clone();
+  }
+
+  /**
+   * Creates a table that leaves every value unchanged.
+   *
+   * @return the identity table.
+   */
+  public static LookupTable identity() {
+    return offset(0, 0, 0);
+  }
+
+  /**
+   * Creates a table that adds the given value to every channel, clamping the result to 0-255.
+   *
+   * @param value value to add to each channel.
+   * @return the brighten table.
+   */
+  public static LookupTable brighten(int value) {
+    return offset(value, value, value);
+  }
+
+  /**
+   * Creates a table that adds a separate offset to each channel, clamping the result to 0-255.
+   *
+   * @param redOffset   value to add to the red channel.
+   * @param greenOffset value to add to the green channel.
+   * @param blueOffset  value to add to the blue channel.
+   * @return the offset table.
+   */
+  public static LookupTable offset(int redOffset, int greenOffset, int blueOffset) {
+    int[] r = new int[256];
+    int[] g = new int[256];
+    int[] b = new int[256];
+    for (int v = 0; v < 256; v++) {
+      r[v] = clamp(v + redOffset);
+      g[v] = clamp(v + greenOffset);
+      b[v] = clamp(v + blueOffset);
+    }
+    return new LookupTable(r, g, b);
+  }
+
+  /**
+   * Creates a table that maps every channel through the quadratic curve fitted to the given black,
+   * mid and white points.
+   *
+   * @param black black level threshold (0-255).
+   * @param mid   mid level threshold.
+   * @param white white level threshold (0-255).
+   * @return the levels adjust table.
+   * @throws IllegalArgumentException if levels are invalid.
+   */
+  public static LookupTable levels(int black, int mid, int white) {
+    if (black < 0 || mid <= black || white <= mid || white > 255) {
+      throw new IllegalArgumentException("Invalid levels: ensure 0 <= black < mid < white <= 255");
+    }
+    double y = Math.pow(black, 2) * (mid - white)
+        - black * (Math.pow(mid, 2) - Math.pow(white, 2))
+        - mid * Math.pow(white, 2) + white * Math.pow(mid, 2);
+
+    double aA = -black * (128 - 255) + 128 * white - 255 * mid;
+    double bA =
+        Math.pow(black, 2) * (128 - 255) + 255 * Math.pow(mid, 2) - 128 * Math.pow(white, 2);
+    double cA = Math.pow(black, 2) * (255 * mid - 128 * white)
+        - black * (255 * Math.pow(mid, 2) - 128 * Math.pow(white, 2));
+
+    double a = aA / y;
+    double b = bA / y;
+    double c = cA / y;
+
+    int[] table = new int[256];
+    for (int v = 0; v < 256; v++) {
+      double adjusted = a * Math.pow(v, 2) + b * v + c;
+      table[v] = (int) Math.max(0, Math.min(255, Math.round(adjusted)));
+    }
+    return new LookupTable(table, table, table);
+  }
+
+  private static int clamp(int value) {
+    return Math.min(255, Math.max(0, value));
+  }
+
+  /**
+   * Composes this table with another one. Applying the result is the same as applying this table
+   * and then the given one.
+   *
+   * @param next table to apply after this one.
+   * @return a single table equivalent to both.
+   */
+  public LookupTable andThen(LookupTable next) {
+    int[] r = new int[256];
+    int[] g = new int[256];
+    int[] b = new int[256];
+    for (int v = 0; v < 256; v++) {
+      r[v] = next.red[red[v]];
+      g[v] = next.green[green[v]];
+      b[v] = next.blue[blue[v]];
+    }
+    return new LookupTable(r, g, b);
+  }
+
+  /**
+   * Maps a single packed 0xRRGGBB pixel through the table.
+   *
+   * @param rgb packed pixel.
+   * @return the mapped packed pixel.
+   */
+  public int apply(int rgb) {
+    return (red[(rgb >> 16) & 0xFF] << 16) | (green[(rgb >> 8) & 0xFF] << 8) | blue[rgb & 0xFF];
+  }
+
+  /**
+   * Maps a range of packed pixels through the table. Source and destination may be the same array.
+   *
+   * @param source      buffer of packed pixels to read.
+   * @param destination buffer to write the mapped pixels to.
+   * @param from        first index to map (inclusive).
+   * @param to          last index to map (exclusive).
+   */
+  public void apply(int[] source, int[] destination, int from, int to) {
+    for (int i = from; i < to; i++) {
+      int rgb = source[i];
+      destination[i] = (red[(rgb >> 16) & 0xFF] << 16) | (green[(rgb >> 8) & 0xFF] << 8)
+          | blue[rgb & 0xFF];
+    }
+  }
+
+  /**
+   * Maps every pixel of an image through the table in a single pass.
+   *
+   * @param image image to map.
+   * @return a new image holding the mapped pixels.
+   */
+  public PackedImage apply(Image image) {
+    PackedImage source = PackedImage.of(image);
+    int[] data = source.getData();
+    int[] result = new int[source.getWidth() * source.getHeight()];
+    apply(data, result, 0, result.length);
+    return new PackedImage(source.getWidth(), source.getHeight(), result);
+  }
+
+  /**
+   * Maps the red, green and blue histograms of an image to the histograms of the image mapped
+   * through this table. Each channel is mapped on its own, so every bin simply moves to its mapped
+   * value and no pixel has to be counted again.
+   *
+   * @param histogram red, green and blue histograms of 256 bins each.
+   * @return new histograms of the mapped image.
+   */
+  public int[][] mapHistogram(int[][] histogram) {
+    int[][] tables = {red, green, blue};
+    int[][] mapped = new int[3][256];
+    for (int channel = 0; channel < 3; channel++) {
+      for (int value = 0; value < 256; value++) {
+        mapped[channel][tables[channel][value]] += histogram[channel][value];
+      }
+    }
+    return mapped;
+  }
+
+  /**
+   * Gets the mapped value of a single channel value.
+   *
+   * @param channel channel index: 0 for red, 1 for green, 2 for blue.
+   * @param value   input value (0-255).
+   * @return the mapped value.
+   */
+  public int lookup(int channel, int value) {
+    switch (channel) {
+      case 0:
+        return red[value];
+      case 1:
+        return green[value];
+      case 2:
+        return blue[value];
+      default:
+        throw new IllegalArgumentException("Invalid channel: " + channel);
+    }
+  }
+
+  /**
+   * Gets a string that identifies the contents of this table, for the result cache. Each entry
+   * becomes one character, so equal tables give equal strings and different tables different
+   * ones.
+   *
+   * @return the fingerprint of the table.
+   */
+  String fingerprint() {
+    char[] entries = new char[3 * 256];
+    for (int value = 0; value < 256; value++) {
+      entries[value] = (char) red[value];
+      entries[256 + value] = (char) green[value];
+      entries[512 + value] = (char) blue[value];
+    }
+    return new String(entries);
+  }
+}
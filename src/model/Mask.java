@@ -0,0 +1,163 @@
+package src.model;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Represents the pixels of an image selected by a mask, stored as runs of selected columns per row.
+ * Masked operations only compute the selected pixels and copy every other pixel unchanged, so they
+ * iterate the runs of each row instead of testing every pixel.
+ */
+public final class Mask {
+
+  private static final int[] NO_RUNS = new int[0];
+
+  private final int width;
+  private final int height;
+  private final int[][] runs;
+  private final long selectedCount;
+
+  private Mask(int width, int height, int[][] runs) {
+    this.width = width;
+    this.height = height;
+    this.runs = runs;
+    long count = 0;
+    for (int[] row : runs) {
+      for (int i = 0; i < row.length; i += 2) {
+        count += row[i + 1] - row[i];
+      }
+    }
+    this.selectedCount = count;
+  }
+
+  /**
+   * Creates a mask from a mask image. Every pixel whose red channel is not 255 is selected, so the
+   * white parts of the mask image are left unchanged by masked operations.
+   *
+   * @param maskImage black and white mask image.
+   * @return the mask.
+   */
+  public static Mask fromImage(Image maskImage) {
+    PackedImage mask = PackedImage.of(maskImage);
+    return build(mask, rgb -> ((rgb >> 16) & 0xFF) != 255);
+  }
+
+  /**
+   * Creates a mask that selects the dark pixels of an image: those whose luminance
+   * (0.299 R + 0.587 G + 0.114 B) is at most 128.
+   *
+   * @param image image to derive the mask from.
+   * @return the mask.
+   */
+  public static Mask threshold(Image image) {
+    PackedImage source = PackedImage.of(image);
+    return build(source, rgb -> {
+      int gray = (int) (0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF)
+          + 0.114 * (rgb & 0xFF));
+      return gray <= 128;
+    });
+  }
+
+  /**
+   * Creates a mask that selects a rectangle.
+   *
+   * @param width        width of the mask.
+   * @param height       height of the mask.
+   * @param x            left edge of the rectangle.
+   * @param y            top edge of the rectangle.
+   * @param regionWidth  width of the rectangle.
+   * @param regionHeight height of the rectangle.
+   * @return the mask.
+   */
+  static Mask rectangle(int width, int height, int x, int y, int regionWidth, int regionHeight) {
+    int[] run = regionWidth == 0 ? NO_RUNS : new int[]{x, x + regionWidth};
+    int[][] runs = new int[height][];
+    for (int row = 0; row < height; row++) {
+      runs[row] = row >= y && row < y + regionHeight ? run : NO_RUNS;
+    }
+    return new Mask(width, height, runs);
+  }
+
+  private static Mask build(PackedImage image, IntPredicate selected) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] data = image.getData();
+    int[][] runs = new int[height][];
+    int[] row = new int[width + 1];
+    for (int y = 0; y < height; y++) {
+      int count = 0;
+      int offset = y * width;
+      int x = 0;
+      while (x < width) {
+        while (x < width && !selected.test(data[offset + x])) {
+          x++;
+        }
+        if (x == width) {
+          break;
+        }
+        row[count++] = x;
+        while (x < width && selected.test(data[offset + x])) {
+          x++;
+        }
+        row[count++] = x;
+      }
+      runs[y] = count == 0 ? NO_RUNS : Arrays.copyOf(row, count);
+    }
+    return new Mask(width, height, runs);
+  }
+
+  /**
+   * Gets the width of the mask.
+   *
+   * @return the width in pixels.
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets the height of the mask.
+   *
+   * @return the height in pixels.
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Gets the number of selected pixels.
+   *
+   * @return the number of selected pixels.
+   */
+  public long getSelectedCount() {
+    return selectedCount;
+  }
+
+  /**
+   * Checks whether a pixel is selected.
+   *
+   * @param x column of the pixel.
+   * @param y row of the pixel.
+   * @return true if the pixel is selected.
+   */
+  public boolean isSelected(int x, int y) {
+    int[] row = runs[y];
+    for (int i = 0; i < row.length && row[i] <= x; i += 2) {
+      if (x < row[i + 1]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Gets the selected runs of a row as pairs of start (inclusive) and end (exclusive) columns. The
+   * returned array is shared and must not be modified.
+   *
+   * @param y row index.
+   * @return the runs of the row.
+   */
+  int[] getRuns(int y) {
+    return runs[y];
+  }
+}
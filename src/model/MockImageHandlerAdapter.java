@@ -4,6 +4,8 @@ import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 
 /**
  * Mock model to test the controller.
@@ -107,12 +109,47 @@ public class MockImageHandlerAdapter implements ImageHandlerAdapter {
     log.append("Input: " + imageName + "\n");
   }
 
+  @Override
+  public void loadImagePixels(Path path, String imageName) {
+    log.append("Input: " + imageName + "\n");
+  }
+
+  @Override
+  public void loadImagePixelsFromPPM(Path path, String imageName) {
+    log.append("Input: " + imageName + "\n");
+  }
+
+  @Override
+  public void prefetch(Path path) {
+  }
+
+  @Override
+  public void cancelPrefetches() {
+  }
+
+  @Override
+  public boolean hasImage(String imageName) {
+    return true;
+  }
+
   @Override
   public OutputStream save(String imageName) {
     log.append("Input: " + imageName + "\n");
     return null;
   }
 
+  @Override
+  public void write(String imageName, String format, WritableByteChannel output) {
+    log.append("Input: " + imageName + "\n");
+  }
+
+  @Override
+  public ImageEncoder encoder(String imageName, String format) {
+    log.append("Input: " + imageName + "\n");
+    return output -> {
+    };
+  }
+
   @Override
   public void blueComponent(String imageName, String modifiedImageName) {
     log.append("Input: " + imageName + " " + modifiedImageName + "\n");
@@ -158,11 +195,21 @@ public class MockImageHandlerAdapter implements ImageHandlerAdapter {
     log.append("Input: " + imageName + " " + modifiedImageName + "\n");
   }
 
+  @Override
+  public void applyColorMatrix(String imageName, String modifiedImageName, ColorMatrix matrix) {
+    log.append("Input: " + imageName + " " + modifiedImageName + "\n");
+  }
+
   @Override
   public void brighten(String imageName, String modifiedImageName, int value) {
     log.append("Input: " + imageName + " " + modifiedImageName + "\n");
   }
 
+  @Override
+  public void applyLookupTable(String imageName, String modifiedImageName, LookupTable table) {
+    log.append("Input: " + imageName + " " + modifiedImageName + "\n");
+  }
+
   @Override
   public void blur(String imageName, String modifiedImageName) {
     log.append("Input: " + imageName + " " + modifiedImageName + "\n");
@@ -0,0 +1,275 @@
+package src.model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+
+/**
+ * Represents an image whose pixels are stored in a single primitive buffer instead of one object
+ * per pixel. Each entry of the buffer holds one pixel packed as 0xRRGGBB, and rows are stored one
+ * after the other, so the pixel at (x, y) lives at index {@code y * width + x}.
+ */
+public class PackedImage implements Image {
+
+  private final int width;
+  private final int height;
+  private final int[] data;
+  private boolean pooled;
+  private long version;
+  private int[][] histogram;
+  private long histogramVersion;
+  private String contentHash;
+  private long contentHashVersion;
+
+  /**
+   * Constructs a PackedImage over the given pixel buffer. The buffer is used as is, not copied.
+   *
+   * @param width  width of the image in pixels.
+   * @param height height of the image in pixels.
+   * @param data   row-major buffer of packed 0xRRGGBB pixels.
+   * @throws IllegalArgumentException if the dimensions are invalid or do not match the buffer.
+   */
+  public PackedImage(int width, int height, int[] data) {
+    this(width, height, data, false);
+  }
+
+  /**
+   * Constructs a PackedImage over a pixel buffer that may have been borrowed from a pool.
+   *
+   * @param width  width of the image in pixels.
+   * @param height height of the image in pixels.
+   * @param data   row-major buffer of packed 0xRRGGBB pixels.
+   * @param pooled true if the buffer was borrowed from a {@link PixelBufferPool}.
+   * @throws IllegalArgumentException if the dimensions are invalid or do not match the buffer.
+   */
+  PackedImage(int width, int height, int[] data, boolean pooled) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid image size");
+    }
+    if (data.length < width * height) {
+      throw new IllegalArgumentException("Pixel buffer is smaller than the image size");
+    }
+    this.width = width;
+    this.height = height;
+    this.data = data;
+    this.pooled = pooled;
+  }
+
+  /**
+   * Constructs an empty (black) PackedImage of the given size.
+   *
+   * @param width  width of the image in pixels.
+   * @param height height of the image in pixels.
+   */
+  public PackedImage(int width, int height) {
+    this(width, height, new int[Math.max(width, 0) * Math.max(height, 0)]);
+  }
+
+  /**
+   * Returns the given image as a PackedImage, packing its pixels only if it is not already one. A
+   * crop is copied row by row from the buffer of the image it was cropped from.
+   *
+   * @param image image to convert.
+   * @return packed representation of the image.
+   */
+  public static PackedImage of(Image image) {
+    if (image instanceof PackedImage) {
+      return (PackedImage) image;
+    }
+    if (image instanceof CroppedImage) {
+      return ((CroppedImage) image).toPackedImage();
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] data = new int[width * height];
+    for (int x = 0; x < width; x++) {
+      for (int y = 0; y < height; y++) {
+        Pixel pixel = image.getPixel(x, y);
+        data[y * width + x] = pack(pixel.getR(), pixel.getG(), pixel.getB());
+      }
+    }
+    return new PackedImage(width, height, data);
+  }
+
+  /**
+   * Packs three channel values into a single 0xRRGGBB int.
+   *
+   * @param red   red component (0-255).
+   * @param green green component (0-255).
+   * @param blue  blue component (0-255).
+   * @return the packed pixel.
+   */
+  public static int pack(int red, int green, int blue) {
+    return (red << 16) | (green << 8) | blue;
+  }
+
+  @Override
+  public int getWidth() {
+    return this.width;
+  }
+
+  @Override
+  public int getHeight() {
+    return this.height;
+  }
+
+  /**
+   * Gets pixel at the specified coordinates. The returned pixel is a copy of the packed value.
+   *
+   * @param x the x-coord of the pixel to retrieve.
+   * @param y y-coord of the pixel to retrieve.
+   * @return Pixel object at the specified coordinates.
+   * @throws IllegalArgumentException if the coordinates are out of bounds.
+   */
+  @Override
+  public Pixel getPixel(int x, int y) {
+    if (x < 0 || y < 0 || x >= this.width || y >= this.height) {
+      throw new IllegalArgumentException("Invalid pixel coordinates");
+    }
+    int rgb = data[y * width + x];
+    return new SimplePixel((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+  }
+
+  /**
+   * Gets the entire image data as a 2D array of pixels. The array is built on every call.
+   *
+   * @return a 2D array of Pixel objects representing the image.
+   */
+  @Override
+  public Pixel[][] getImage() {
+    Pixel[][] pixels = new Pixel[width][height];
+    for (int x = 0; x < width; x++) {
+      for (int y = 0; y < height; y++) {
+        pixels[x][y] = getPixel(x, y);
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Gets the underlying pixel buffer. Changes to the returned array change this image.
+   *
+   * @return row-major buffer of packed 0xRRGGBB pixels.
+   */
+  public int[] getData() {
+    return this.data;
+  }
+
+  /**
+   * Copies this image into a new RGB BufferedImage. The packed pixels are copied straight into the
+   * int raster of the BufferedImage, which uses the same 0xRRGGBB row-major layout. The copy keeps
+   * the displayed image independent of this one, whose buffer may later be changed in place or
+   * returned to a pool.
+   *
+   * @return a TYPE_INT_RGB BufferedImage with the pixels of this image.
+   */
+  public BufferedImage toBufferedImage() {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    System.arraycopy(data, 0, raster, 0, width * height);
+    return image;
+  }
+
+  /**
+   * Wraps this image as an RGB BufferedImage over the same pixel buffer, without copying it. The
+   * wrapper is only valid while this image is unchanged, so it suits short-lived uses such as
+   * encoding the image to a file.
+   *
+   * @return a BufferedImage sharing the pixel buffer of this image.
+   */
+  BufferedImage asBufferedImage() {
+    DirectColorModel model = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+    return new BufferedImage(model, Raster.createPackedRaster(
+        new DataBufferInt(data, width * height), width, height, width, model.getMasks(), null),
+        false, null);
+  }
+
+  /**
+   * Checks whether the pixel buffer of this image was borrowed from a pool and not yet returned.
+   *
+   * @return true if the buffer belongs to a pool.
+   */
+  boolean isPooled() {
+    return pooled;
+  }
+
+  /**
+   * Returns the pixel buffer of this image to the pool it was borrowed from. Does nothing if the
+   * buffer was not borrowed or was already returned. The image must not be used afterwards.
+   *
+   * @param pool pool the buffer was borrowed from.
+   */
+  void release(PixelBufferPool pool) {
+    if (pooled) {
+      pooled = false;
+      pool.release(data);
+    }
+  }
+
+  /**
+   * Gets the version of this image, which counts the times its pixels were changed in place.
+   * Results derived from the image, such as masks, are cached together with the version they were
+   * derived from.
+   *
+   * @return the version of the image.
+   */
+  long getVersion() {
+    return version;
+  }
+
+  /**
+   * Records that the pixels of this image were changed in place.
+   */
+  void modified() {
+    version++;
+  }
+
+  /**
+   * Gets the red, green and blue histograms of this image. They are counted at most once per
+   * version of the image and kept with it, so repeated histogram and color correction requests do
+   * not scan the pixels again. The arrays are shared and must not be modified.
+   *
+   * @return histograms of 256 bins each, for red, green and blue.
+   */
+  int[][] getHistogram() {
+    if (!hasHistogram()) {
+      setHistogram(Histograms.count(data, width, height));
+    }
+    return histogram;
+  }
+
+  /**
+   * Gets a 128-bit hash of the pixels of this image, as 32 hex digits. Like the histograms, it is
+   * computed at most once per version of the image.
+   *
+   * @return the content hash.
+   */
+  String getContentHash() {
+    if (contentHash == null || contentHashVersion != version) {
+      contentHash = ResultCache.hash(data, width * height);
+      contentHashVersion = version;
+    }
+    return contentHash;
+  }
+
+  /**
+   * Checks whether the histograms of the current version of this image are known.
+   *
+   * @return true if the histograms can be read without counting the pixels.
+   */
+  boolean hasHistogram() {
+    return histogram != null && histogramVersion == version;
+  }
+
+  /**
+   * Records the histograms of the current version of this image, for operations that know the
+   * histograms of their result without counting it.
+   *
+   * @param histogram histograms of 256 bins each, for red, green and blue.
+   */
+  void setHistogram(int[][] histogram) {
+    this.histogram = histogram;
+    this.histogramVersion = version;
+  }
+}
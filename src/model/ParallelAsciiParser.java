@@ -0,0 +1,224 @@
+package src.model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.stream.IntStream;
+
+/**
+ * Parses the pixel section of a large ASCII (P3) PPM file in parallel. The section is
+ * memory-mapped and split into byte ranges that start at whitespace, so no number is cut in two.
+ * A first parallel pass counts the numbers of each range, which tells every range the index of its
+ * first number; a second parallel pass parses the ranges straight into the pixel buffer. Pixels
+ * whose channels are split over two ranges are put together once both passes are done.
+ *
+ * <p>Ranges are at least 1 MB long; the system property {@code ime.ppm.chunk.min} sets another
+ * minimum, so that tests can split small files into many ranges.
+ */
+final class ParallelAsciiParser {
+
+  private static final long MIN_CHUNK_SIZE = 1 << 20;
+  private static final long MAX_CHUNK_SIZE = 1 << 30;
+  private static final int CHUNKS_PER_WORKER = 4;
+
+  private final FileChannel file;
+  private final int[] data;
+  private final int expected;
+  private long[] bounds;
+  private MappedByteBuffer[] chunks;
+  private long[] firstNumbers;
+  private int[][] partialPixels;
+
+  private ParallelAsciiParser(FileChannel file, int[] data, int expected) {
+    this.file = file;
+    this.data = data;
+    this.expected = expected;
+  }
+
+  /**
+   * Parses the pixel section of an ASCII PPM file into a pixel buffer.
+   *
+   * @param file     file to parse.
+   * @param start    offset of the first byte of the pixel section.
+   * @param data     buffer to fill with packed 0xRRGGBB pixels.
+   * @param expected number of channel values the image holds.
+   * @param workers  number of workers to split the section for.
+   * @return the number of channel values found in the file, or -1 if the pixel section holds a
+   *         comment, which cannot be split safely; nothing is written in that case.
+   * @throws IOException              if the file cannot be read.
+   * @throws IllegalArgumentException if the pixel section is malformed.
+   */
+  static long parse(FileChannel file, long start, int[] data, int expected, int workers)
+      throws IOException {
+    ParallelAsciiParser parser = new ParallelAsciiParser(file, data, expected);
+    try {
+      parser.split(start, file.size(), workers);
+      return parser.count() ? parser.parse() : -1;
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private void split(long start, long end, int workers) throws IOException {
+    long minimum = Math.max(1, Long.getLong("ime.ppm.chunk.min", MIN_CHUNK_SIZE));
+    long size = Math.min(MAX_CHUNK_SIZE, Math.max(minimum,
+        (end - start + workers * CHUNKS_PER_WORKER - 1) / (workers * CHUNKS_PER_WORKER)));
+    int count = (int) ((end - start + size - 1) / size);
+    bounds = new long[count + 1];
+    bounds[0] = start;
+    bounds[count] = end;
+    for (int i = 1; i < count; i++) {
+      bounds[i] = nextWhitespace(Math.max(bounds[i - 1], start + i * size), end);
+    }
+    chunks = new MappedByteBuffer[count];
+    firstNumbers = new long[count + 1];
+    partialPixels = new int[count][];
+  }
+
+  private long nextWhitespace(long position, long end) throws IOException {
+    ByteBuffer bytes = ByteBuffer.allocate(64);
+    while (position < end) {
+      bytes.clear();
+      int read = file.read(bytes, position);
+      for (int i = 0; i < read; i++) {
+        if (isWhitespace(bytes.get(i))) {
+          return position + i;
+        }
+      }
+      position += Math.max(read, 0);
+    }
+    return end;
+  }
+
+  /**
+   * Counts the numbers of every range. Returns false if a range holds a comment.
+   */
+  private boolean count() {
+    boolean[] comment = new boolean[1];
+    IntStream.range(0, chunks.length).parallel().forEach(i -> {
+      chunks[i] = map(bounds[i], bounds[i + 1]);
+      long numbers = countNumbers(chunks[i]);
+      if (numbers < 0) {
+        comment[0] = true;
+      }
+      firstNumbers[i + 1] = numbers;
+    });
+    if (comment[0]) {
+      return false;
+    }
+    for (int i = 0; i < chunks.length; i++) {
+      firstNumbers[i + 1] += firstNumbers[i];
+    }
+    return true;
+  }
+
+  private long parse() {
+    IntStream.range(0, chunks.length).parallel().forEach(this::parseChunk);
+    for (int[] partial : partialPixels) {
+      for (int i = 0; i < partial.length; i += 2) {
+        if (partial[i] >= 0) {
+          data[partial[i]] = 0;
+        }
+      }
+    }
+    for (int[] partial : partialPixels) {
+      for (int i = 0; i < partial.length; i += 2) {
+        if (partial[i] >= 0) {
+          data[partial[i]] |= partial[i + 1];
+        }
+      }
+    }
+    return firstNumbers[chunks.length];
+  }
+
+  private MappedByteBuffer map(long from, long to) {
+    try {
+      return file.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static long countNumbers(MappedByteBuffer bytes) {
+    long numbers = 0;
+    boolean inNumber = false;
+    for (int i = 0; i < bytes.limit(); i++) {
+      byte b = bytes.get(i);
+      if (b >= '0' && b <= '9') {
+        if (!inNumber) {
+          numbers++;
+          inNumber = true;
+        }
+      } else if (isWhitespace(b)) {
+        inNumber = false;
+      } else if (b == '#') {
+        return -1;
+      } else {
+        throw new IllegalArgumentException("Invalid PPM file: unexpected character '"
+            + (char) (b & 0xFF) + "'.");
+      }
+    }
+    return numbers;
+  }
+
+  /**
+   * Parses the numbers of one range. Pixels whose three channels all lie in the range are written
+   * to the buffer; the channels of the at most two pixels shared with neighbouring ranges are kept
+   * as (pixel, bits) pairs and merged afterwards.
+   */
+  private void parseChunk(int chunk) {
+    MappedByteBuffer bytes = chunks[chunk];
+    long first = firstNumbers[chunk];
+    long end = Math.min(firstNumbers[chunk + 1], expected);
+    int[] partial = {-1, 0, -1, 0};
+    long index = first;
+    int pixel = -1;
+    int bits = 0;
+    int value = 0;
+    boolean inNumber = false;
+    for (int i = 0; i <= bytes.limit(); i++) {
+      byte b = i < bytes.limit() ? bytes.get(i) : (byte) ' ';
+      if (b >= '0' && b <= '9') {
+        value = value * 10 + b - '0';
+        if (value > 255) {
+          throw new IllegalArgumentException("Invalid PPM file: pixel value out of range.");
+        }
+        inNumber = true;
+      } else if (inNumber) {
+        if (index < end) {
+          int current = (int) (index / 3);
+          if (current != pixel) {
+            store(pixel, bits, first, end, partial);
+            pixel = current;
+            bits = 0;
+          }
+          bits |= value << (16 - 8 * (int) (index % 3));
+        }
+        index++;
+        value = 0;
+        inNumber = false;
+      }
+    }
+    store(pixel, bits, first, end, partial);
+    partialPixels[chunk] = partial;
+  }
+
+  private void store(int pixel, int bits, long first, long end, int[] partial) {
+    if (pixel < 0) {
+      return;
+    }
+    if (pixel * 3L >= first && pixel * 3L + 3 <= end) {
+      data[pixel] = bits;
+    } else {
+      int slot = partial[0] < 0 ? 0 : 2;
+      partial[slot] = pixel;
+      partial[slot + 1] = bits;
+    }
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B;
+  }
+}
@@ -0,0 +1,62 @@
+package src.model;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps pixel buffers that are no longer used so that later operations can reuse them instead of
+ * allocating new ones. Buffers are kept in one bucket per length, since the images an application
+ * works on tend to keep their size from one operation to the next. Each bucket holds a few buffers
+ * and the pool as a whole stops keeping buffers beyond a fixed number of pixels, so it never holds
+ * on to much more memory than the images in use.
+ */
+final class PixelBufferPool {
+
+  private static final int MAX_BUFFERS_PER_SIZE = 4;
+  private static final long MAX_RETAINED_PIXELS = 1L << 25;
+
+  private final Map<Integer, ArrayDeque<int[]>> buckets = new HashMap<>();
+  private long retainedPixels;
+
+  /**
+   * Borrows a buffer of the given length. The contents of a reused buffer are left as they were, so
+   * the caller must write every entry it reads.
+   *
+   * @param length length of the buffer.
+   * @return a buffer of exactly the given length.
+   */
+  int[] borrow(int length) {
+    ArrayDeque<int[]> bucket = buckets.get(length);
+    if (bucket == null || bucket.isEmpty()) {
+      return new int[length];
+    }
+    retainedPixels -= length;
+    return bucket.pop();
+  }
+
+  /**
+   * Returns a buffer to the pool. The buffer must not be used by the caller afterwards.
+   *
+   * @param buffer buffer to return.
+   */
+  void release(int[] buffer) {
+    if (retainedPixels + buffer.length > MAX_RETAINED_PIXELS) {
+      return;
+    }
+    ArrayDeque<int[]> bucket = buckets.computeIfAbsent(buffer.length, length -> new ArrayDeque<>());
+    if (bucket.size() < MAX_BUFFERS_PER_SIZE) {
+      bucket.push(buffer);
+      retainedPixels += buffer.length;
+    }
+  }
+
+  /**
+   * Gets the number of pixels held by the buffers in the pool.
+   *
+   * @return the number of retained pixels.
+   */
+  long getRetainedPixels() {
+    return retainedPixels;
+  }
+}
@@ -0,0 +1,112 @@
+package src.model;
+
+/**
+ * Hot pixel loops of the image handlers, written against primitive buffers of packed 0xRRGGBB
+ * pixels (see {@link PackedImage}) and plain double arrays. Two implementations exist: a portable
+ * scalar one, and one built on the incubating Java Vector API that is only used when it was built
+ * (from the optional {@code vector/} source set) and the {@code jdk.incubator.vector} module is
+ * present at runtime. Both produce identical output.
+ */
+interface PixelKernels {
+
+  /**
+   * Adds a value to every channel of a range of pixels, clamping the result to 0-255.
+   *
+   * @param source      buffer of packed pixels to read.
+   * @param destination buffer to write the result to.
+   * @param from        first index (inclusive).
+   * @param to          last index (exclusive).
+   * @param value       value to add to every channel.
+   */
+  void brighten(int[] source, int[] destination, int from, int to, int value);
+
+  /**
+   * Mixes the channels of a range of pixels through a color matrix.
+   *
+   * @param source      buffer of packed pixels to read.
+   * @param destination buffer to write the result to.
+   * @param from        first index (inclusive).
+   * @param to          last index (exclusive).
+   * @param matrix      color matrix to apply.
+   */
+  void colorMatrix(int[] source, int[] destination, int from, int to, ColorMatrix matrix);
+
+  /**
+   * Applies the 3x3 box blur to a span of one row. Neighbours outside the image are clamped to the
+   * nearest edge pixel.
+   *
+   * @param source      buffer of packed pixels to read.
+   * @param destination buffer to write the result to; must not be the source buffer.
+   * @param width       width of the image.
+   * @param height      height of the image.
+   * @param y           row to process.
+   * @param fromX       first column (inclusive).
+   * @param toX         last column (exclusive).
+   */
+  void blur(int[] source, int[] destination, int width, int height, int y, int fromX, int toX);
+
+  /**
+   * Applies the 3x3 sharpen kernel to a span of one row. Neighbours outside the image are clamped
+   * to the nearest edge pixel.
+   *
+   * @param source      buffer of packed pixels to read.
+   * @param destination buffer to write the result to; must not be the source buffer.
+   * @param width       width of the image.
+   * @param height      height of the image.
+   * @param y           row to process.
+   * @param fromX       first column (inclusive).
+   * @param toX         last column (exclusive).
+   */
+  void sharpen(int[] source, int[] destination, int width, int height, int y, int fromX, int toX);
+
+  /**
+   * Computes the Haar average and difference of two sequences element by element:
+   * {@code sum[i] = (a[i] + b[i]) / sqrt(2)} and {@code diff[i] = (a[i] - b[i]) / sqrt(2)}.
+   *
+   * @param a      first sequence.
+   * @param b      second sequence.
+   * @param sum    sequence receiving the averages.
+   * @param diff   sequence receiving the differences.
+   * @param length number of elements to process.
+   */
+  void haarPairs(double[] a, double[] b, double[] sum, double[] diff, int length);
+
+  /**
+   * Applies one forward Haar step to the first {@code length} values of a sequence in place: the
+   * averages of neighbouring pairs followed by their differences.
+   *
+   * @param values  sequence to transform.
+   * @param scratch scratch array of at least {@code length} values.
+   * @param length  number of values to transform (even).
+   */
+  void haarForward(double[] values, double[] scratch, int length);
+
+  /**
+   * Reverts one forward Haar step on the first {@code length} values of a sequence in place.
+   *
+   * @param values  sequence to transform.
+   * @param scratch scratch array of at least {@code length} values.
+   * @param length  number of values to transform (even).
+   */
+  void haarInverse(double[] values, double[] scratch, int length);
+
+  /**
+   * Selects the fastest kernels available in this JVM. The vector kernels are used when they were
+   * built and the {@code jdk.incubator.vector} module is present, unless the system property
+   * {@code ime.kernels} is set to {@code scalar}.
+   *
+   * @return the selected kernels.
+   */
+  static PixelKernels select() {
+    if (!"scalar".equalsIgnoreCase(System.getProperty("ime.kernels"))
+        && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+      try {
+        return (PixelKernels) Class.forName("src.model.VectorPixelKernels")
+            .getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+        // fall back to the scalar kernels
+      }
+    }
+    return new ScalarPixelKernels();
+  }
+}
@@ -0,0 +1,320 @@
+package src.model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads PPM images, both ASCII (P3) and binary (P6), straight into packed pixel buffers. The
+ * input is tokenised byte by byte from a buffered channel, so numbers are parsed as they are read
+ * and no string is created for them. The pixel payload of a binary file is memory-mapped instead
+ * of read through the buffer, and the payload of a large ASCII file is parsed in parallel by
+ * {@link ParallelAsciiParser} when more than one core is available. The system properties
+ * {@code ime.ppm.parallel.threshold} (payload size in bytes from which the parallel parser is
+ * used) and {@code ime.ppm.workers} (number of workers to split the payload for) override the
+ * defaults, so that tests can run the parallel parser on small files.
+ *
+ * <pre>
+ *   PpmReader reader = new PpmReader(channel);
+ *   reader.readHeader();
+ *   int[] data = new int[reader.getWidth() * reader.getHeight()];
+ *   reader.readPixels(data);
+ * </pre>
+ */
+final class PpmReader {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final long PARALLEL_THRESHOLD = 1 << 22;
+
+  private final ReadableByteChannel channel;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private int limit;
+  private long bufferStart;
+  private boolean binary;
+  private int width;
+  private int height;
+
+  /**
+   * Constructs a reader over a channel positioned at the start of a PPM image.
+   *
+   * @param channel channel to read from; file channels allow binary payloads to be mapped.
+   */
+  PpmReader(ReadableByteChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Adapts a character reader over an ASCII PPM image to a channel of its bytes.
+   *
+   * @param reader reader to adapt.
+   * @return a channel returning one byte per character read.
+   */
+  static ReadableByteChannel channelOf(Reader reader) {
+    return new ReadableByteChannel() {
+      private final char[] chars = new char[BUFFER_SIZE];
+
+      @Override
+      public int read(ByteBuffer destination) throws IOException {
+        int count = reader.read(chars, 0, Math.min(chars.length, destination.remaining()));
+        for (int i = 0; i < count; i++) {
+          destination.put((byte) chars[i]);
+        }
+        return count;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() throws IOException {
+        reader.close();
+      }
+    };
+  }
+
+  /**
+   * Reads the magic number, size and maximum color value of the image.
+   *
+   * @throws IOException              if reading fails.
+   * @throws IllegalArgumentException if the header is not a valid P3 or P6 header with a maximum
+   *                                  color value of 255.
+   */
+  void readHeader() throws IOException {
+    String magicNumber = readMagicNumber();
+    if (!magicNumber.equals("P3") && !magicNumber.equals("P6")) {
+      throw new IllegalArgumentException(
+          "Invalid PPM file: expected 'P3', found '" + magicNumber + "'.");
+    }
+    binary = magicNumber.equals("P6");
+    width = readHeaderNumber();
+    height = readHeaderNumber();
+    if (width == 0 || height == 0 || (long) width * height * 3 > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid image size");
+    }
+    if (readHeaderNumber() != 255) {
+      throw new IllegalArgumentException("Invalid PPM file: max color value must be 255.");
+    }
+  }
+
+  /**
+   * Checks whether the image is a binary (P6) image.
+   *
+   * @return true for P6, false for P3.
+   */
+  boolean isBinary() {
+    return binary;
+  }
+
+  /**
+   * Gets the width of the image read by {@link #readHeader()}.
+   *
+   * @return the width in pixels.
+   */
+  int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets the height of the image read by {@link #readHeader()}.
+   *
+   * @return the height in pixels.
+   */
+  int getHeight() {
+    return height;
+  }
+
+  /**
+   * Reads the pixels of the image as packed 0xRRGGBB values in row-major order.
+   *
+   * @param data buffer of at least width * height entries to fill.
+   * @throws IOException              if reading fails.
+   * @throws IllegalArgumentException if the payload is malformed or does not hold exactly width *
+   *                                  height pixels.
+   */
+  void readPixels(int[] data) throws IOException {
+    if (binary) {
+      readBinary(data);
+    } else {
+      readAscii(data);
+    }
+  }
+
+  private void readAscii(int[] data) throws IOException {
+    int expected = width * height * 3;
+    int workers = Integer.getInteger("ime.ppm.workers",
+        Runtime.getRuntime().availableProcessors());
+    if (channel instanceof FileChannel && workers > 1) {
+      FileChannel file = (FileChannel) channel;
+      long start = bufferStart + position;
+      if (file.size() - start >= Long.getLong("ime.ppm.parallel.threshold",
+          PARALLEL_THRESHOLD)) {
+        long found = ParallelAsciiParser.parse(file, start, data, expected, workers);
+        if (found >= 0) {
+          validatePixelCount(found);
+          return;
+        }
+      }
+    }
+    int found = 0;
+    int rgb = 0;
+    int c = skipWhitespace(read(), false);
+    while (c >= 0) {
+      int value = 0;
+      do {
+        if (c < '0' || c > '9') {
+          throw unexpected(c);
+        }
+        value = value * 10 + c - '0';
+        if (value > 255) {
+          throw new IllegalArgumentException("Invalid PPM file: pixel value out of range.");
+        }
+        c = read();
+      } while (c >= 0 && !isWhitespace(c) && c != '#');
+      if (found < expected) {
+        rgb = (rgb << 8) | value;
+        if (found % 3 == 2) {
+          data[found / 3] = rgb & 0xFFFFFF;
+        }
+      }
+      found++;
+      c = skipWhitespace(c, false);
+    }
+    validatePixelCount(found);
+  }
+
+  private void readBinary(int[] data) throws IOException {
+    int expected = width * height * 3;
+    if (channel instanceof FileChannel) {
+      FileChannel file = (FileChannel) channel;
+      long start = bufferStart + position;
+      long available = file.size() - start;
+      if (available < expected) {
+        validatePixelCount(available);
+      }
+      MappedByteBuffer payload = file.map(FileChannel.MapMode.READ_ONLY, start, expected);
+      byte[] row = new byte[width * 3];
+      for (int y = 0; y < height; y++) {
+        payload.get(row);
+        unpackRow(row, data, y * width);
+      }
+      return;
+    }
+    for (int i = 0; i < width * height; i++) {
+      int red = read();
+      int green = read();
+      int blue = read();
+      if (blue < 0) {
+        validatePixelCount(i * 3L + (red < 0 ? 0 : green < 0 ? 1 : 2));
+      }
+      data[i] = PackedImage.pack(red, green, blue);
+    }
+  }
+
+  private void unpackRow(byte[] row, int[] data, int offset) {
+    for (int x = 0, i = 0; x < width; x++, i += 3) {
+      data[offset + x] = (row[i] & 0xFF) << 16 | (row[i + 1] & 0xFF) << 8 | (row[i + 2] & 0xFF);
+    }
+  }
+
+  /**
+   * Checks that the number of channel values found in the payload matches the image size.
+   *
+   * @param found number of channel values found.
+   * @throws IllegalArgumentException if the number does not match.
+   */
+  void validatePixelCount(long found) {
+    if (found != (long) width * height * 3) {
+      throw new IllegalArgumentException(
+          "Invalid PPM file: expected " + (width * height * 3) + " pixel values but found "
+              + found + ".");
+    }
+  }
+
+  private String readMagicNumber() throws IOException {
+    StringBuilder magicNumber = new StringBuilder();
+    int c = skipWhitespace(read(), true);
+    while (c >= 0 && !isWhitespace(c) && magicNumber.length() < 16) {
+      magicNumber.append((char) c);
+      c = read();
+    }
+    return magicNumber.toString();
+  }
+
+  /**
+   * Reads a number of the header along with the single whitespace character that ends it, so that
+   * after the maximum color value the reader is positioned at the first byte of the payload.
+   */
+  private int readHeaderNumber() throws IOException {
+    int c = skipWhitespace(read(), true);
+    if (c < '0' || c > '9') {
+      throw unexpected(c);
+    }
+    int value = 0;
+    while (c >= '0' && c <= '9') {
+      if (value > (Integer.MAX_VALUE - 9) / 10) {
+        throw new IllegalArgumentException("Invalid PPM file: header value out of range.");
+      }
+      value = value * 10 + c - '0';
+      c = read();
+    }
+    if (c >= 0 && !isWhitespace(c)) {
+      throw unexpected(c);
+    }
+    return value;
+  }
+
+  private int skipWhitespace(int c, boolean header) throws IOException {
+    while (c >= 0 && (isWhitespace(c) || c == '#')) {
+      if (c == '#') {
+        StringBuilder comment = header ? new StringBuilder("#") : null;
+        while ((c = read()) >= 0 && c != '\n' && c != '\r') {
+          if (comment != null) {
+            comment.append((char) c);
+          }
+        }
+        if (comment != null) {
+          System.out.println("Skipping comment: " + comment.toString().trim());
+        }
+      } else {
+        c = read();
+      }
+    }
+    return c;
+  }
+
+  private static boolean isWhitespace(int c) {
+    return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0x0B;
+  }
+
+  private static IllegalArgumentException unexpected(int c) {
+    return new IllegalArgumentException(c < 0 ? "Invalid PPM file: unexpected end of file."
+        : "Invalid PPM file: unexpected character '" + (char) c + "'.");
+  }
+
+  private int read() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position++] & 0xFF;
+  }
+
+  private boolean fill() throws IOException {
+    bufferStart += limit;
+    position = 0;
+    limit = 0;
+    ByteBuffer target = ByteBuffer.wrap(buffer);
+    while (limit == 0) {
+      if (channel.read(target) < 0) {
+        return false;
+      }
+      limit = target.position();
+    }
+    return true;
+  }
+}
@@ -0,0 +1,83 @@
+package src.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes PPM images, as binary P6 or as ASCII P3. Rows are encoded from the packed pixel buffer
+ * into a direct byte buffer that is written to the channel whenever it fills up, so an image of
+ * any size is written with a single fixed-size buffer.
+ */
+final class PpmWriter {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final byte[][] DECIMALS = new byte[256][];
+
+  static {
+    for (int value = 0; value < 256; value++) {
+      DECIMALS[value] = Integer.toString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+  }
+
+  private PpmWriter() {
+  }
+
+  /**
+   * Writes an image as a binary (P6) PPM.
+   *
+   * @param image  image to write.
+   * @param output channel to write to; it is not closed.
+   * @throws IOException if writing fails.
+   */
+  static void writeBinary(PackedImage image, WritableByteChannel output) throws IOException {
+    ByteBuffer buffer = header("P6", image);
+    int[] data = image.getData();
+    for (int i = 0; i < image.getWidth() * image.getHeight(); i++) {
+      if (buffer.remaining() < 3) {
+        drain(buffer, output);
+      }
+      int rgb = data[i];
+      buffer.put((byte) (rgb >> 16)).put((byte) (rgb >> 8)).put((byte) rgb);
+    }
+    drain(buffer, output);
+  }
+
+  /**
+   * Writes an image as an ASCII (P3) PPM, one pixel per line.
+   *
+   * @param image  image to write.
+   * @param output channel to write to; it is not closed.
+   * @throws IOException if writing fails.
+   */
+  static void writeAscii(PackedImage image, WritableByteChannel output) throws IOException {
+    ByteBuffer buffer = header("P3", image);
+    int[] data = image.getData();
+    for (int i = 0; i < image.getWidth() * image.getHeight(); i++) {
+      if (buffer.remaining() < 12) {
+        drain(buffer, output);
+      }
+      int rgb = data[i];
+      buffer.put(DECIMALS[(rgb >> 16) & 0xFF]).put((byte) ' ')
+          .put(DECIMALS[(rgb >> 8) & 0xFF]).put((byte) ' ')
+          .put(DECIMALS[rgb & 0xFF]).put((byte) '\n');
+    }
+    drain(buffer, output);
+  }
+
+  private static ByteBuffer header(String magicNumber, PackedImage image) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    buffer.put((magicNumber + "\n" + image.getWidth() + " " + image.getHeight() + "\n255\n")
+        .getBytes(StandardCharsets.US_ASCII));
+    return buffer;
+  }
+
+  private static void drain(ByteBuffer buffer, WritableByteChannel output) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      output.write(buffer);
+    }
+    buffer.clear();
+  }
+}
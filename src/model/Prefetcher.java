@@ -0,0 +1,134 @@
+package src.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes image files in the background before they are loaded. A handler is told which files are
+ * about to be loaded; a background thread decodes them while the handler goes on with its current
+ * operations, and the load then takes the decoded image instead of reading the file. At most a few
+ * decoded images are held at once. A prefetched image is only used if the file still has the size
+ * and modification time it had when decoding started; otherwise, or if decoding failed, the load
+ * reads the file itself and reports any error as usual.
+ *
+ * <p>A prefetcher is used from a single thread; only the decoding runs in the background.
+ */
+final class Prefetcher {
+
+  /**
+   * Decodes a file on the background thread. Each call must use its own buffers and decoder
+   * state, since the handler keeps using its own at the same time.
+   */
+  interface Decode {
+
+    /**
+     * Decodes a file.
+     *
+     * @param path path of the file.
+     * @return the decoded image.
+     * @throws IOException if the file cannot be read or decoded.
+     */
+    PackedImage decode(Path path) throws IOException;
+  }
+
+  private static final int CAPACITY = 2;
+  private static final AtomicInteger THREADS = new AtomicInteger();
+
+  private final Map<Path, Prefetch> prefetches = new LinkedHashMap<>();
+  private ExecutorService executor;
+
+  /**
+   * Starts decoding a file in the background, unless it is already being decoded or the buffer of
+   * prefetched images is full.
+   *
+   * @param path   path of the file.
+   * @param decode decoder to run in the background.
+   */
+  void prefetch(Path path, Decode decode) {
+    Path key = path.toAbsolutePath().normalize();
+    if (prefetches.containsKey(key) || prefetches.size() >= CAPACITY) {
+      return;
+    }
+    String stamp = stamp(key);
+    if (stamp == null) {
+      return;
+    }
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "image-prefetch-" + THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    prefetches.put(key, new Prefetch(stamp, executor.submit(() -> decode.decode(key))));
+  }
+
+  /**
+   * Takes the prefetched image of a file, waiting for it if it is still being decoded.
+   *
+   * @param path path of the file.
+   * @return the decoded image, or null if the file was not prefetched, its decoding failed or the
+   *         file changed since.
+   */
+  PackedImage take(Path path) {
+    Path key = path.toAbsolutePath().normalize();
+    Prefetch prefetch = prefetches.remove(key);
+    if (prefetch == null) {
+      return null;
+    }
+    try {
+      PackedImage image = prefetch.image.get();
+      return Objects.equals(prefetch.stamp, stamp(key)) ? image : null;
+    } catch (ExecutionException e) {
+      return null;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Drops every prefetched image that was not taken, cancelling the decoding of those still being
+   * decoded, so that a run that stops early leaves room for the prefetches of the next one.
+   */
+  void cancel() {
+    for (Prefetch prefetch : prefetches.values()) {
+      prefetch.image.cancel(true);
+    }
+    prefetches.clear();
+  }
+
+  /**
+   * Gets the size and modification time of a file, or null if they cannot be read.
+   */
+  private static String stamp(Path path) {
+    try {
+      return Files.size(path) + "@" + Files.getLastModifiedTime(path);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * An image being decoded, together with the stamp of the file when decoding started.
+   */
+  private static final class Prefetch {
+
+    private final String stamp;
+    private final Future<PackedImage> image;
+
+    private Prefetch(String stamp, Future<PackedImage> image) {
+      this.stamp = stamp;
+      this.image = image;
+    }
+  }
+}
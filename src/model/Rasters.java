@@ -0,0 +1,110 @@
+package src.model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Copies the pixels of BufferedImages into packed pixel buffers. The common image types, whose
+ * rasters hold 8-bit sRGB channels in a known order, are copied straight from their data buffers
+ * one row at a time; every other type is converted a row at a time through getRGB. The result is
+ * always the same as calling getRGB for every pixel and dropping the alpha channel.
+ */
+final class Rasters {
+
+  private Rasters() {
+  }
+
+  /**
+   * Copies the pixels of an image into a row-major buffer of packed 0xRRGGBB pixels.
+   *
+   * @param image image to copy.
+   * @param data  buffer of at least width * height entries to fill.
+   */
+  static void unpack(BufferedImage image, int[] data) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Raster raster = image.getRaster();
+    if (raster.getParent() == null && raster.getSampleModelTranslateX() == 0
+        && raster.getSampleModelTranslateY() == 0) {
+      switch (image.getType()) {
+        case BufferedImage.TYPE_INT_RGB:
+        case BufferedImage.TYPE_INT_ARGB:
+          if (unpackInts(raster, data, width, height, false)) {
+            return;
+          }
+          break;
+        case BufferedImage.TYPE_INT_BGR:
+          if (unpackInts(raster, data, width, height, true)) {
+            return;
+          }
+          break;
+        case BufferedImage.TYPE_3BYTE_BGR:
+        case BufferedImage.TYPE_4BYTE_ABGR:
+          if (unpackBytes(raster, data, width, height)) {
+            return;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    for (int y = 0; y < height; y++) {
+      image.getRGB(0, y, width, 1, data, y * width, width);
+      for (int i = y * width; i < (y + 1) * width; i++) {
+        data[i] &= 0xFFFFFF;
+      }
+    }
+  }
+
+  private static boolean unpackInts(Raster raster, int[] data, int width, int height,
+      boolean bgr) {
+    if (!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+      return false;
+    }
+    int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+    DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+    int[] source = buffer.getData();
+    int offset = buffer.getOffset();
+    for (int y = 0; y < height; y++) {
+      int from = offset + y * stride;
+      int to = y * width;
+      for (int x = 0; x < width; x++) {
+        int pixel = source[from + x];
+        data[to + x] = bgr ? (pixel & 0xFF) << 16 | (pixel & 0xFF00) | (pixel >> 16 & 0xFF)
+            : pixel & 0xFFFFFF;
+      }
+    }
+    return true;
+  }
+
+  private static boolean unpackBytes(Raster raster, int[] data, int width, int height) {
+    if (!(raster.getSampleModel() instanceof ComponentSampleModel)) {
+      return false;
+    }
+    ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+    int[] offsets = model.getBandOffsets();
+    int stride = model.getScanlineStride();
+    int pixelStride = model.getPixelStride();
+    DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+    if (buffer.getNumBanks() != 1) {
+      return false;
+    }
+    byte[] source = buffer.getData();
+    int red = buffer.getOffset() + offsets[0];
+    int green = buffer.getOffset() + offsets[1];
+    int blue = buffer.getOffset() + offsets[2];
+    for (int y = 0; y < height; y++) {
+      int row = y * stride;
+      int to = y * width;
+      for (int x = 0, i = row; x < width; x++, i += pixelStride) {
+        data[to + x] = (source[red + i] & 0xFF) << 16 | (source[green + i] & 0xFF) << 8
+            | (source[blue + i] & 0xFF);
+      }
+    }
+    return true;
+  }
+}
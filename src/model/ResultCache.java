@@ -0,0 +1,221 @@
+package src.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the results of operations, keyed by the operation, its parameters and the content of
+ * its input images, so that running the same operation on the same pixels again returns the
+ * earlier result instead of computing it. The content of an image is identified by a 128-bit hash
+ * of its pixels, which each image computes at most once per version.
+ *
+ * <p>Results are kept in memory, least recently used first out, up to a fixed number of pixels.
+ * When the system property {@code ime.cache.dir} names a directory, results are also written there
+ * as binary PPM files, so that later runs of the same script find them; that directory is never
+ * cleaned up by the application. Setting {@code ime.cache} to {@code off} turns the cache off.
+ *
+ * <p>Cached images are shared by every name they are stored under, so they are never changed in
+ * place: they do not belong to the pixel buffer pool.
+ */
+final class ResultCache {
+
+  private static final long MAX_PIXELS = 1L << 24;
+
+  private final Map<String, PackedImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final Path directory;
+  private long pixels;
+
+  /**
+   * Constructs a cache, with a disk tier in the given directory.
+   *
+   * @param directory directory to keep results in across runs, or null to keep them in memory
+   *                  only.
+   */
+  ResultCache(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Constructs a cache with the disk tier named by the {@code ime.cache.dir} system property, if
+   * it is set. Setting {@code ime.cache} to {@code off} turns caching off, so that every operation
+   * is computed, as benchmarks of the operations need.
+   *
+   * @return the cache, or null if caching is off.
+   */
+  static ResultCache fromSystemProperties() {
+    if ("off".equalsIgnoreCase(System.getProperty("ime.cache"))) {
+      return null;
+    }
+    String directory = System.getProperty("ime.cache.dir");
+    return new ResultCache(directory == null || directory.isEmpty() ? null
+        : Paths.get(directory));
+  }
+
+  /**
+   * Builds the key of an operation on the given inputs.
+   *
+   * @param operation name and parameters of the operation.
+   * @param inputs    images the operation reads; null entries stand for missing optional inputs.
+   * @return the key.
+   */
+  static String key(String operation, Image... inputs) {
+    StringBuilder key = new StringBuilder(operation);
+    for (Image input : inputs) {
+      key.append(' ');
+      if (input == null) {
+        key.append('-');
+      } else {
+        PackedImage packed = PackedImage.of(input);
+        key.append(packed.getWidth()).append('x').append(packed.getHeight()).append(':')
+            .append(packed.getContentHash());
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Hashes the first pixels of a buffer into 128 bits, as two independent 64-bit lanes.
+   *
+   * @param data   buffer of packed pixels.
+   * @param length number of pixels to hash.
+   * @return the hash as 32 hex digits.
+   */
+  static String hash(int[] data, int length) {
+    long first = 0x9E3779B97F4A7C15L ^ length;
+    long second = 0xC2B2AE3D27D4EB4FL + length;
+    for (int i = 0; i < length; i++) {
+      first = Long.rotateLeft(first ^ data[i] * 0x87C37B91114253D5L, 31) * 0x4CF5AD432745937FL;
+      second = Long.rotateLeft(second + (data[i] ^ 0x52DCE729), 27) * 0x9FB21C651E98DF25L;
+    }
+    return String.format("%016x%016x", mix(first), mix(second ^ first));
+  }
+
+  private static long mix(long value) {
+    value = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+    value = (value ^ (value >>> 33)) * 0xC4CEB9FE1A85EC53L;
+    return value ^ (value >>> 33);
+  }
+
+  /**
+   * Gets the cached result for a key, from memory or else from the disk tier.
+   *
+   * @param key key of the operation.
+   * @return the cached result, or null if there is none.
+   */
+  PackedImage get(String key) {
+    PackedImage result = entries.get(key);
+    if (result == null && directory != null) {
+      result = readFile(key);
+      if (result != null) {
+        remember(key, result);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Caches the result of an operation. The memory tier keeps a copy, which is only made if the
+   * result fits in it; the disk tier writes the result straight away.
+   *
+   * @param key    key of the operation.
+   * @param result result to cache.
+   */
+  void put(String key, PackedImage result) {
+    if (directory != null) {
+      writeFile(key, result);
+    }
+    int size = result.getWidth() * result.getHeight();
+    if (size <= MAX_PIXELS) {
+      remember(key, new PackedImage(result.getWidth(), result.getHeight(),
+          Arrays.copyOf(result.getData(), size)));
+    }
+  }
+
+  /**
+   * Keeps a result in the memory tier, evicting the least recently used results as needed.
+   */
+  private void remember(String key, PackedImage result) {
+    long size = (long) result.getWidth() * result.getHeight();
+    if (size > MAX_PIXELS) {
+      return;
+    }
+    PackedImage previous = entries.put(key, result);
+    pixels += size;
+    if (previous != null) {
+      pixels -= (long) previous.getWidth() * previous.getHeight();
+    }
+    for (Iterator<PackedImage> eldest = entries.values().iterator(); pixels > MAX_PIXELS; ) {
+      PackedImage evicted = eldest.next();
+      pixels -= (long) evicted.getWidth() * evicted.getHeight();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Reads a result from the disk tier. A file that cannot be read is treated as missing.
+   */
+  private PackedImage readFile(String key) {
+    Path file = directory.resolve(fileName(key));
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      PpmReader ppm = new PpmReader(channel);
+      ppm.readHeader();
+      PackedImage result = new PackedImage(ppm.getWidth(), ppm.getHeight());
+      ppm.readPixels(result.getData());
+      return result;
+    } catch (IOException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes a result to the disk tier. The file is written under a temporary name and then moved
+   * into place, so a reader never sees a partial file. Failures only cost the cache entry.
+   */
+  private void writeFile(String key, PackedImage result) {
+    try {
+      Files.createDirectories(directory);
+      Path file = directory.resolve(fileName(key));
+      Path temporary = Files.createTempFile(directory, "result", ".tmp");
+      try {
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+          PpmWriter.writeBinary(result, channel);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temporary);
+      }
+    } catch (IOException e) {
+      // The result stays cached in memory; only later runs miss it.
+    }
+  }
+
+  private static String fileName(String key) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256")
+          .digest(key.getBytes(StandardCharsets.UTF_8));
+      StringBuilder name = new StringBuilder();
+      for (byte b : digest) {
+        name.append(String.format("%02x", b));
+      }
+      return name.append(".ppm").toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
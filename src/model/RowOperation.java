@@ -0,0 +1,87 @@
+package src.model;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A filter that computes the pixels of any span of a row on its own, reading from a source buffer
+ * of packed 0xRRGGBB pixels (see {@link PackedImage}) and writing the same span of a destination
+ * buffer. Filters written this way can be limited to a region of interest, such as the filtered
+ * side of a split preview, without computing the rest of the image.
+ *
+ * <p>A pixel of the result may depend on the source pixels up to {@link #radius()} rows and columns
+ * away. Operations with a radius of 0 read only the pixel they write, so they can also run with the
+ * same buffer as source and destination.
+ */
+@FunctionalInterface
+interface RowOperation {
+
+  /**
+   * Computes the pixels {@code fromX} (inclusive) to {@code toX} (exclusive) of row {@code y}.
+   *
+   * @param source      buffer of packed pixels to read.
+   * @param destination buffer to write the result to; may be the source buffer only if the radius
+   *                    is 0.
+   * @param width       width of the image.
+   * @param height      height of the image.
+   * @param y           row to process.
+   * @param fromX       first column (inclusive).
+   * @param toX         last column (exclusive).
+   */
+  void apply(int[] source, int[] destination, int width, int height, int y, int fromX, int toX);
+
+  /**
+   * Gets how far away from a pixel the source pixels that determine it may lie.
+   *
+   * @return the radius of the operation; 0 for operations that map every pixel on its own.
+   */
+  default int radius() {
+    return 0;
+  }
+
+  /**
+   * Marks an operation as a stencil that reads the neighbours of each pixel.
+   *
+   * @param radius    radius of the stencil.
+   * @param operation the operation.
+   * @return the same operation, reporting the given radius.
+   */
+  static RowOperation stencil(int radius, RowOperation operation) {
+    return new RowOperation() {
+      @Override
+      public void apply(int[] source, int[] destination, int width, int height, int y, int fromX,
+          int toX) {
+        operation.apply(source, destination, width, height, y, fromX, toX);
+      }
+
+      @Override
+      public int radius() {
+        return radius;
+      }
+    };
+  }
+
+  /**
+   * Creates a row operation that maps every pixel on its own.
+   *
+   * @param pixel function from a packed pixel to the resulting packed pixel.
+   * @return the row operation.
+   */
+  static RowOperation pointwise(IntUnaryOperator pixel) {
+    return (source, destination, width, height, y, fromX, toX) -> {
+      for (int i = y * width + fromX; i < y * width + toX; i++) {
+        destination[i] = pixel.applyAsInt(source[i]);
+      }
+    };
+  }
+
+  /**
+   * Creates a row operation that maps every pixel through a lookup table.
+   *
+   * @param table lookup table to apply.
+   * @return the row operation.
+   */
+  static RowOperation lookup(LookupTable table) {
+    return (source, destination, width, height, y, fromX, toX) ->
+        table.apply(source, destination, y * width + fromX, y * width + toX);
+  }
+}
@@ -0,0 +1,147 @@
+package src.model;
+
+/**
+ * Portable implementation of the pixel kernels. It defines the exact results every other
+ * implementation has to reproduce.
+ */
+class ScalarPixelKernels implements PixelKernels {
+
+  static final double BLUR_WEIGHT = 1 / 9.0;
+  static final double SQRT_TWO = Math.sqrt(2);
+
+  @Override
+  public void brighten(int[] source, int[] destination, int from, int to, int value) {
+    for (int i = from; i < to; i++) {
+      int rgb = source[i];
+      destination[i] = PackedImage.pack(clamp(((rgb >> 16) & 0xFF) + value),
+          clamp(((rgb >> 8) & 0xFF) + value), clamp((rgb & 0xFF) + value));
+    }
+  }
+
+  private static int clamp(int value) {
+    return Math.min(255, Math.max(0, value));
+  }
+
+  @Override
+  public void colorMatrix(int[] source, int[] destination, int from, int to,
+      ColorMatrix matrix) {
+    matrix.apply(source, destination, from, to);
+  }
+
+  @Override
+  public void blur(int[] source, int[] destination, int width, int height, int y, int fromX,
+      int toX) {
+    int[] rows = neighbourRows(width, height, y);
+    for (int x = fromX; x < toX; x++) {
+      destination[y * width + x] = blurPixel(source, width, rows, x);
+    }
+  }
+
+  /**
+   * Blurs a single pixel. The weighted sum is accumulated in the same order as the original
+   * per-pixel implementation (column by column, top to bottom) so rounding is identical.
+   *
+   * @param source buffer of packed pixels.
+   * @param width  width of the image.
+   * @param rows   offsets of the rows above, at and below the pixel.
+   * @param x      column of the pixel.
+   * @return the blurred packed pixel.
+   */
+  static int blurPixel(int[] source, int width, int[] rows, int x) {
+    double redSum = 0;
+    double greenSum = 0;
+    double blueSum = 0;
+    for (int i = -1; i <= 1; i++) {
+      int neighborX = Math.min(Math.max(x + i, 0), width - 1);
+      for (int row : rows) {
+        int rgb = source[row + neighborX];
+        redSum += BLUR_WEIGHT * ((rgb >> 16) & 0xFF);
+        greenSum += BLUR_WEIGHT * ((rgb >> 8) & 0xFF);
+        blueSum += BLUR_WEIGHT * (rgb & 0xFF);
+      }
+    }
+    int red = (int) Math.min(Math.max(redSum, 0), 255);
+    int green = (int) Math.min(Math.max(greenSum, 0), 255);
+    int blue = (int) Math.min(Math.max(blueSum, 0), 255);
+    return PackedImage.pack(red, green, blue);
+  }
+
+  @Override
+  public void sharpen(int[] source, int[] destination, int width, int height, int y, int fromX,
+      int toX) {
+    int[] rows = neighbourRows(width, height, y);
+    for (int x = fromX; x < toX; x++) {
+      destination[y * width + x] = sharpenPixel(source, width, rows, x);
+    }
+  }
+
+  /**
+   * Sharpens a single pixel with the kernel {0, -1, 0}, {-1, 5, -1}, {0, -1, 0}.
+   *
+   * @param source buffer of packed pixels.
+   * @param width  width of the image.
+   * @param rows   offsets of the rows above, at and below the pixel.
+   * @param x      column of the pixel.
+   * @return the sharpened packed pixel.
+   */
+  static int sharpenPixel(int[] source, int width, int[] rows, int x) {
+    int center = source[rows[1] + x];
+    int left = source[rows[1] + Math.max(x - 1, 0)];
+    int right = source[rows[1] + Math.min(x + 1, width - 1)];
+    int up = source[rows[0] + x];
+    int down = source[rows[2] + x];
+    int result = 0;
+    for (int shift = 16; shift >= 0; shift -= 8) {
+      int sum = 5 * ((center >> shift) & 0xFF) - ((left >> shift) & 0xFF)
+          - ((right >> shift) & 0xFF) - ((up >> shift) & 0xFF) - ((down >> shift) & 0xFF);
+      result = (result << 8) | Math.min(Math.max(sum, 0), 255);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the buffer offsets of the rows above, at and below a row, clamped to the image.
+   *
+   * @param width  width of the image.
+   * @param height height of the image.
+   * @param y      row index.
+   * @return the three row offsets.
+   */
+  static int[] neighbourRows(int width, int height, int y) {
+    return new int[]{Math.max(y - 1, 0) * width, y * width, Math.min(y + 1, height - 1) * width};
+  }
+
+  @Override
+  public void haarPairs(double[] a, double[] b, double[] sum, double[] diff, int length) {
+    for (int i = 0; i < length; i++) {
+      double first = a[i];
+      double second = b[i];
+      sum[i] = (first + second) / SQRT_TWO;
+      diff[i] = (first - second) / SQRT_TWO;
+    }
+  }
+
+  @Override
+  public void haarForward(double[] values, double[] scratch, int length) {
+    int half = length / 2;
+    for (int i = 0; i < half; i++) {
+      double first = values[2 * i];
+      double second = values[2 * i + 1];
+      scratch[i] = (first + second) / SQRT_TWO;
+      scratch[half + i] = (first - second) / SQRT_TWO;
+    }
+    System.arraycopy(scratch, 0, values, 0, length);
+  }
+
+  @Override
+  public void haarInverse(double[] values, double[] scratch, int length) {
+    int half = length / 2;
+    for (int i = 0; i < half; i++) {
+      double average = values[i];
+      double difference = values[half + i];
+      scratch[2 * i] = (average + difference) / SQRT_TWO;
+      scratch[2 * i + 1] = (average - difference) / SQRT_TWO;
+    }
+    System.arraycopy(scratch, 0, values, 0, length);
+  }
+}
@@ -1,5 +1,12 @@
 package src.model;
 
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+
 /**
  * The SimpleExtendedImageHandlerAdapter class extends SimpleImageHandlerAdapter and implements
  * ExtendedImageHandlerAdapter, providing additional image processing methods with various
@@ -9,6 +16,9 @@ package src.model;
 public class SimpleExtendedImageHandlerAdapter extends SimpleImageHandlerAdapter implements
     ExtendedImageHandlerAdapter {
 
+  private final Map<Image, CachedMask> loadedMasks = new WeakHashMap<>();
+  private final Map<Image, CachedMask> thresholdMasks = new WeakHashMap<>();
+
   /**
    * Constructor that calls the superclass constructor.
    */
@@ -24,8 +34,89 @@ public class SimpleExtendedImageHandlerAdapter extends SimpleImageHandlerAdapter
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    int originalWidth = originalImage.getWidth();
-    int originalHeight = originalImage.getHeight();
+    validateDownscale(originalImage.getWidth(), originalImage.getHeight(), newWidth, newHeight);
+    memoized("downscale " + newWidth + " " + newHeight, modifiedImageName,
+        () -> super.getMap().put(modifiedImageName, downscale(PackedImage.of(originalImage),
+            originalImage.getWidth(), originalImage.getHeight(), 1, 1, newWidth, newHeight)),
+        originalImage);
+  }
+
+  /**
+   * Loads an image file and downscales it, storing only the downscaled image. The result is the
+   * same as loading the file and downscaling it, but only the rows and columns of the file that the
+   * downscale reads are decoded: when they are evenly spaced, the decoder subsamples the file.
+   *
+   * @param path              path of the image file.
+   * @param modifiedImageName name to store the downscaled image under.
+   * @param newWidth          width of the downscaled image.
+   * @param newHeight         height of the downscaled image.
+   * @throws IOException if the file cannot be read or decoded.
+   */
+  @Override
+  public void loadDownscaled(Path path, String modifiedImageName, int newWidth, int newHeight)
+      throws IOException {
+    int[] periods = new int[2];
+    int[] size = new int[2];
+    PackedImage sampled = decoder.decode(path, (width, height, param) -> {
+      validateDownscale(width, height, newWidth, newHeight);
+      size[0] = width;
+      size[1] = height;
+      periods[0] = samplingPeriod(width, newWidth);
+      periods[1] = samplingPeriod(height, newHeight);
+      param.setSourceSubsampling(periods[0], periods[1], 0, 0);
+    });
+    super.getMap().put(modifiedImageName,
+        downscale(sampled, size[0], size[1], periods[0], periods[1], newWidth, newHeight));
+    pool.release(sampled.getData());
+  }
+
+  /**
+   * Crops an image to a rectangle. The crop shares the pixels of the image instead of copying
+   * them; the image is kept until neither it nor any crop of it is stored.
+   *
+   * @param imageName         name of the image to crop.
+   * @param modifiedImageName name to store the crop under.
+   * @param x                 x-coord of the left edge of the rectangle.
+   * @param y                 y-coord of the top edge of the rectangle.
+   * @param width             width of the rectangle.
+   * @param height            height of the rectangle.
+   * @throws IllegalArgumentException if no image is found with the specified name, or if the
+   *                                  rectangle is empty or not inside the image.
+   */
+  @Override
+  public void crop(String imageName, String modifiedImageName, int x, int y, int width,
+      int height) {
+    Image image = super.getMap().get(imageName);
+    if (image == null) {
+      throw new IllegalArgumentException("No image found with name: " + imageName);
+    }
+    super.getMap().put(modifiedImageName, CroppedImage.of(image, x, y, width, height));
+  }
+
+  /**
+   * Loads a rectangle of an image file. Only the rectangle is decoded into the new image, through
+   * the source region of the ImageIO reader, so the rest of the file is never stored.
+   *
+   * @param path      path of the image file.
+   * @param imageName name to store the rectangle under.
+   * @param x         x-coord of the left edge of the rectangle.
+   * @param y         y-coord of the top edge of the rectangle.
+   * @param width     width of the rectangle.
+   * @param height    height of the rectangle.
+   * @throws IOException              if the file cannot be read or decoded.
+   * @throws IllegalArgumentException if the rectangle is empty or not inside the image.
+   */
+  @Override
+  public void loadRegion(Path path, String imageName, int x, int y, int width, int height)
+      throws IOException {
+    super.getMap().put(imageName, decoder.decode(path, (imageWidth, imageHeight, param) -> {
+      CroppedImage.validate(imageWidth, imageHeight, x, y, width, height);
+      param.setSourceRegion(new Rectangle(x, y, width, height));
+    }));
+  }
+
+  private static void validateDownscale(int originalWidth, int originalHeight, int newWidth,
+      int newHeight) {
     if (newWidth <= 0 || newHeight <= 0) {
       throw new IllegalArgumentException("New dimensions must be positive.");
     }
@@ -33,47 +124,92 @@ public class SimpleExtendedImageHandlerAdapter extends SimpleImageHandlerAdapter
       throw new IllegalArgumentException(
           "Upscaling is not allowed. Target dimensions must be smaller than the original.");
     }
+  }
 
-    Pixel[][] downscaledPixels = new SimplePixel[newWidth][newHeight];
+  /**
+   * Downscales an image that may hold only every few rows and columns of the original image. Each
+   * pixel is interpolated from the same original pixels as a downscale of the full image, which
+   * must all be present in the sampled image.
+   *
+   * @param sampled        the original image, or the rows and columns of it that are multiples of
+   *                       the sampling periods.
+   * @param originalWidth  width of the original image.
+   * @param originalHeight height of the original image.
+   * @param periodX        distance between the original columns held by the sampled image.
+   * @param periodY        distance between the original rows held by the sampled image.
+   * @param newWidth       width of the downscaled image.
+   * @param newHeight      height of the downscaled image.
+   * @return the downscaled image.
+   */
+  PackedImage downscale(PackedImage sampled, int originalWidth, int originalHeight, int periodX,
+      int periodY, int newWidth, int newHeight) {
+    PackedImage downscaledImage = newImage(newWidth, newHeight);
+    int[] data = downscaledImage.getData();
 
     for (int x = 0; x < newWidth; x++) {
       for (int y = 0; y < newHeight; y++) {
-        downscaledPixels[x][y] = getInterpolatedPixel(x, y, newWidth, newHeight, originalImage,
-            originalWidth, originalHeight);
+        data[y * newWidth + x] = getInterpolatedPixel(x, y, newWidth, newHeight, sampled,
+            originalWidth, originalHeight, periodX, periodY);
       }
     }
+    return downscaledImage;
+  }
 
-    Image downscaledImage = new SimpleImage(downscaledPixels);
-    super.getMap().put(modifiedImageName, downscaledImage);
+  /**
+   * Gets the largest distance such that every original row or column read by a downscale along one
+   * axis is a multiple of it, so the image can be decoded with that subsampling.
+   */
+  private static int samplingPeriod(int originalSize, int newSize) {
+    int period = 0;
+    for (int i = 0; i < newSize && period != 1; i++) {
+      double source = sourceCoordinate(i, newSize, originalSize);
+      period = gcd(period, (int) Math.floor(source));
+      period = gcd(period, Math.min((int) Math.ceil(source), originalSize - 1));
+    }
+    return period == 0 ? originalSize : period;
+  }
+
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      int remainder = a % b;
+      a = b;
+      b = remainder;
+    }
+    return a;
   }
 
+  private static double sourceCoordinate(int coordinate, int newSize, int originalSize) {
+    return ((double) coordinate / newSize) * originalSize;
+  }
 
-  private Pixel getInterpolatedPixel(int x, int y, int newWidth, int newHeight,
-      Image originalImage, int originalWidth, int originalHeight) {
-    double sourceX = ((double) x / newWidth) * originalWidth;
-    double sourceY = ((double) y / newHeight) * originalHeight;
+  private int getInterpolatedPixel(int x, int y, int newWidth, int newHeight,
+      PackedImage sampledImage, int originalWidth, int originalHeight, int periodX, int periodY) {
+    double sourceX = sourceCoordinate(x, newWidth, originalWidth);
+    double sourceY = sourceCoordinate(y, newHeight, originalHeight);
 
     int floorX = (int) Math.floor(sourceX);
     int floorY = (int) Math.floor(sourceY);
     int ceilX = Math.min((int) Math.ceil(sourceX), originalWidth - 1);
     int ceilY = Math.min((int) Math.ceil(sourceY), originalHeight - 1);
 
-    Pixel a = originalImage.getPixel(floorX, floorY);
-    Pixel b = originalImage.getPixel(ceilX, floorY);
-    Pixel c = originalImage.getPixel(floorX, ceilY);
-    Pixel d = originalImage.getPixel(ceilX, ceilY);
+    int[] data = sampledImage.getData();
+    int sampledWidth = sampledImage.getWidth();
+    int a = data[floorY / periodY * sampledWidth + floorX / periodX];
+    int b = data[floorY / periodY * sampledWidth + ceilX / periodX];
+    int c = data[ceilY / periodY * sampledWidth + floorX / periodX];
+    int d = data[ceilY / periodY * sampledWidth + ceilX / periodX];
 
     double weightX = sourceX - floorX;
     double weightY = sourceY - floorY;
 
-    int interpolatedRed = bilinearInterpolate(weightX, weightY, a.getR(), b.getR(), c.getR(),
-        d.getR());
-    int interpolatedGreen = bilinearInterpolate(weightX, weightY, a.getG(), b.getG(), c.getG(),
-        d.getG());
-    int interpolatedBlue = bilinearInterpolate(weightX, weightY, a.getB(), b.getB(), c.getB(),
-        d.getB());
+    int interpolatedRed = bilinearInterpolate(weightX, weightY, a >> 16 & 0xFF, b >> 16 & 0xFF,
+        c >> 16 & 0xFF, d >> 16 & 0xFF);
+    int interpolatedGreen = bilinearInterpolate(weightX, weightY, a >> 8 & 0xFF, b >> 8 & 0xFF,
+        c >> 8 & 0xFF, d >> 8 & 0xFF);
+    int interpolatedBlue = bilinearInterpolate(weightX, weightY, a & 0xFF, b & 0xFF, c & 0xFF,
+        d & 0xFF);
 
-    return new SimplePixel(interpolatedRed, interpolatedGreen, interpolatedBlue);
+    return PackedImage.pack(interpolatedRed, interpolatedGreen, interpolatedBlue);
   }
 
 
@@ -86,140 +222,119 @@ public class SimpleExtendedImageHandlerAdapter extends SimpleImageHandlerAdapter
 
   @Override
   public void blurWithMask(String imageName, String maskedImageName, String modifiedImageName) {
-    Image originalImage = getImage(imageName);
-    Image maskedImage = createMaskedImage(imageName);
-    String blurredImageName = "blurredImage";
-    blur(imageName, blurredImageName);
-    Image operatedImage = getImage(blurredImageName);
-    storeModifiedImage(originalImage, maskedImage, operatedImage, modifiedImageName);
+    applyWithMask("blur", imageName, maskedImageName, modifiedImageName, blurOperation());
   }
 
   @Override
   public void sharpenWithMask(String imageName, String maskedImageName, String modifiedImageName) {
-    Image originalImage = getImage(imageName);
-    Image maskedImage = createMaskedImage(imageName);
-    String sharpenedImageName = "sharpenedImage";
-    sharpen(imageName, sharpenedImageName);
-    Image operatedImage = getImage(sharpenedImageName);
-    storeModifiedImage(originalImage, maskedImage, operatedImage, modifiedImageName);
+    applyWithMask("sharpen", imageName, maskedImageName, modifiedImageName, sharpenOperation());
   }
 
   @Override
   public void redComponentWithMask(String imageName, String maskedImageName,
       String modifiedImageName) {
-    Image originalImage = getImage(imageName);
-    Image maskedImage = createMaskedImage(imageName);
-    String redImageName = "redImage";
-    redComponent(imageName, redImageName);
-    Image operatedImage = getImage(redImageName);
-    storeModifiedImage(originalImage, maskedImage, operatedImage, modifiedImageName);
+    applyWithMask("red-component", imageName, maskedImageName, modifiedImageName,
+        componentOperation(16));
   }
 
   @Override
   public void greenComponentWithMask(String imageName, String maskedImageName,
       String modifiedImageName) {
-    Image originalImage = getImage(imageName);
-    Image maskedImage = createMaskedImage(imageName);
-    String greenImageName = "greenImage";
-    greenComponent(imageName, greenImageName);
-    Image operatedImage = getImage(greenImageName);
-    storeModifiedImage(originalImage, maskedImage, operatedImage, modifiedImageName);
+    applyWithMask("green-component", imageName, maskedImageName, modifiedImageName,
+        componentOperation(8));
   }
 
   @Override
   public void blueComponentWithMask(String imageName, String maskedImageName,
       String modifiedImageName) {
-    Image originalImage = getImage(imageName);
-    Image maskedImage = createMaskedImage(imageName);
-    String blueImageName = "blueImage";
-    blueComponent(imageName, blueImageName);
-    Image operatedImage = getImage(blueImageName);
-    storeModifiedImage(originalImage, maskedImage, operatedImage, modifiedImageName);
+    applyWithMask("blue-component", imageName, maskedImageName, modifiedImageName,
+        componentOperation(0));
   }
 
   @Override
   public void sepiaWithMask(String imageName, String maskedImageName, String modifiedImageName) {
-    Image originalImage = getImage(imageName);
-    Image maskedImage = createMaskedImage(imageName);
-    String sepiaImageName = "sepiaImage";
-    sepia(imageName, sepiaImageName);
-    Image operatedImage = getImage(sepiaImageName);
-    storeModifiedImage(originalImage, maskedImage, operatedImage, modifiedImageName);
+    applyWithMask("sepia", imageName, maskedImageName, modifiedImageName,
+        mixOperation(ColorMatrix.SEPIA));
   }
 
   @Override
   public void lumaWithMask(String imageName, String maskedImageName, String modifiedImageName) {
-    Image originalImage = getImage(imageName);
-    Image maskedImage = createMaskedImage(imageName);
-    String lumaImageName = "lumaImage";
-    lumaComponent(imageName, lumaImageName);
-    Image operatedImage = getImage(lumaImageName);
-    storeModifiedImage(originalImage, maskedImage, operatedImage, modifiedImageName);
+    applyWithMask("luma-component", imageName, maskedImageName, modifiedImageName,
+        mixOperation(ColorMatrix.LUMA));
   }
 
   @Override
   public void intensityWithMask(String imageName, String maskedImageName,
       String modifiedImageName) {
-    Image originalImage = getImage(imageName);
-    Image maskedImage = createMaskedImage(imageName);
-    String intensityImageName = "intensityImage";
-    intensityComponent(imageName, intensityImageName);
-    Image operatedImage = getImage(intensityImageName);
-    storeModifiedImage(originalImage, maskedImage, operatedImage, modifiedImageName);
+    applyWithMask("intensity-component", imageName, maskedImageName, modifiedImageName,
+        INTENSITY);
   }
 
   @Override
   public void valueWithMask(String imageName, String maskedImageName, String modifiedImageName) {
-    Image originalImage = getImage(imageName);
-    Image maskedImage = createMaskedImage(imageName);
-    String valueImageName = "valueImage";
-    valueComponent(imageName, valueImageName);
-    Image operatedImage = getImage(valueImageName);
-    storeModifiedImage(originalImage, maskedImage, operatedImage, modifiedImageName);
+    applyWithMask("value-component", imageName, maskedImageName, modifiedImageName, VALUE);
   }
 
-  private Image createMaskedImage(String imageName) {
-    if (getMap().containsKey("maskedImage")) {
-      return getMap().get("maskedImage");
+  /**
+   * Applies an operation to the pixels selected by the mask and stores the result. Pixels outside
+   * the mask keep their original value and are copied without being computed.
+   *
+   * @param operationName     name of the operation, for the result cache.
+   * @param imageName         name of the source image.
+   * @param maskedImageName   name of the mask image.
+   * @param modifiedImageName name to store the result under.
+   * @param operation         operation to apply.
+   */
+  private void applyWithMask(String operationName, String imageName, String maskedImageName,
+      String modifiedImageName, RowOperation operation) {
+    Image image = getImage(imageName);
+    if (image == null) {
+      throw new IllegalArgumentException("No image found with name: " + imageName);
     }
-    Image originalImage = getImage(imageName);
-    int imageWidth = originalImage.getWidth();
-    int imageHeight = originalImage.getHeight();
-    Pixel[][] maskedImagePixels = new SimplePixel[originalImage.getWidth()]
-        [originalImage.getHeight()];
-    for (int x = 0; x < imageWidth; x++) {
-      for (int y = 0; y < imageHeight; y++) {
-        int red = originalImage.getPixel(x, y).getR();
-        int green = originalImage.getPixel(x, y).getG();
-        int blue = originalImage.getPixel(x, y).getB();
-        int gray = (int) (0.299 * red + 0.587 * green + 0.114 * blue);
-        if (gray > 128) {
-          maskedImagePixels[x][y] = new SimplePixel(255, 255, 255);
-        } else {
-          maskedImagePixels[x][y] = new SimplePixel(0, 0, 0);
-        }
-      }
+    Image maskImage = getImage(maskedImageName);
+    memoizedUnlessInPlace(operationName + " masked", modifiedImageName,
+        () -> applyAndStore(imageName, modifiedImageName, image, operation,
+            getMask(image, maskImage)), image, maskImage);
+  }
+
+  /**
+   * Gets the mask for a masked operation. A loaded mask image selects its pixels whose red channel
+   * is not 255; without one, the dark pixels of the source image are selected. Masks are cached per
+   * image object and version, and dropped together with the image.
+   *
+   * @param image     source image.
+   * @param maskImage mask image, or null if no mask image with the given name is loaded.
+   * @return the mask.
+   */
+  private Mask getMask(Image image, Image maskImage) {
+    if (maskImage != null) {
+      return cachedMask(loadedMasks, maskImage, Mask::fromImage);
     }
-    Image maskedImage = new SimpleImage(maskedImagePixels);
-    return maskedImage;
+    return cachedMask(thresholdMasks, image, Mask::threshold);
   }
 
-  private void storeModifiedImage(Image originalImage, Image maskedImage, Image operatedImage,
-      String modifiedImageName) {
-    Pixel[][] modifiedImagePixels = new Pixel[originalImage.getWidth()][originalImage.getHeight()];
-    for (int i = 0; i < originalImage.getWidth(); i++) {
-      for (int j = 0; j < originalImage.getHeight(); j++) {
-        Pixel originalPixel = originalImage.getPixel(i, j);
-        Pixel maskedPixel = maskedImage.getPixel(i, j);
-        Pixel operatedPixel = operatedImage.getPixel(i, j);
-        if (maskedPixel.getR() == 255) {
-          modifiedImagePixels[i][j] = originalPixel;
-        } else {
-          modifiedImagePixels[i][j] = operatedPixel;
-        }
-      }
+  private static Mask cachedMask(Map<Image, CachedMask> cache, Image image,
+      Function<Image, Mask> factory) {
+    long version = image instanceof PackedImage ? ((PackedImage) image).getVersion() : 0;
+    CachedMask cached = cache.get(image);
+    if (cached == null || cached.version != version) {
+      cached = new CachedMask(version, factory.apply(image));
+      cache.put(image, cached);
+    }
+    return cached.mask;
+  }
+
+  /**
+   * A mask together with the version of the image it was derived from.
+   */
+  private static final class CachedMask {
+
+    private final long version;
+    private final Mask mask;
+
+    private CachedMask(long version, Mask mask) {
+      this.version = version;
+      this.mask = mask;
     }
-    Image modifiedImage = new SimpleImage(modifiedImagePixels);
-    getMap().put(modifiedImageName, modifiedImage);
   }
 }
@@ -1,13 +1,19 @@
 package src.model;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.HashMap;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Map;
+import javax.imageio.ImageIO;
 
 /**
  * Handles image loading and storage operations. The class provides methods to load images in
@@ -16,13 +22,31 @@ import java.util.Map;
  */
 public class SimpleImageHandler implements ImageHandler {
 
+  static final RowOperation VALUE = RowOperation.pointwise(
+      rgb -> grey(Math.max((rgb >> 16) & 0xFF, Math.max((rgb >> 8) & 0xFF, rgb & 0xFF))));
+  static final RowOperation INTENSITY = RowOperation.pointwise(
+      rgb -> grey((((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF)) / 3));
+
   protected final Map<String, Image> imageMap;
+  final ImageStore store;
+  final PixelKernels kernels;
+  final PixelBufferPool pool;
+  final ImageDecoder decoder;
+  final ResultCache results;
+  private final Prefetcher prefetcher = new Prefetcher();
 
   /**
-   * Initializes a new SimpleImageHandler instance. An empty map is created to store images.
+   * Initializes a new SimpleImageHandler instance. An empty map is created to store images, and the
+   * fastest pixel kernels available in this JVM are selected. Images created by the handler borrow
+   * their pixel buffers from a pool and return them when they are overwritten or removed.
    */
   public SimpleImageHandler() {
-    imageMap = new HashMap<>();
+    pool = new PixelBufferPool();
+    store = new ImageStore(pool);
+    imageMap = store;
+    decoder = new ImageDecoder(pool);
+    kernels = PixelKernels.select();
+    results = ResultCache.fromSystemProperties();
   }
 
   /**
@@ -44,116 +68,102 @@ public class SimpleImageHandler implements ImageHandler {
     return imageMap.get(imageName);
   }
 
+  @Override
+  public boolean hasImage(String imageName) {
+    return imageMap.containsKey(imageName);
+  }
+
 
   @Override
   public void loadImagePixels(BufferedImage image, String imageName) throws IOException {
     int width = image.getWidth();
     int height = image.getHeight();
-    Pixel[][] pixels = new SimplePixel[width][height];
-    for (int i = 0; i < width; i++) {
-      for (int j = 0; j < height; j++) {
-        Color color = new Color(image.getRGB(i, j));
-        int red = color.getRed();
-        int green = color.getGreen();
-        int blue = color.getBlue();
-        pixels[i][j] = new SimplePixel(red, green, blue);
-      }
-    }
-    Image img = new SimpleImage(pixels);
+    PackedImage img = newImage(width, height);
+    Rasters.unpack(image, img.getData());
     imageMap.put(imageName, img);
   }
 
-
+  /**
+   * Loads an image file in any format ImageIO can read. The file is decoded straight into the
+   * pixel buffer of the new image when the decoder supports it, and otherwise copied from the
+   * decoded raster a row at a time.
+   *
+   * @param path      path of the image file.
+   * @param imageName name to store the image under.
+   * @throws IOException              if the file cannot be read or decoded.
+   * @throws IllegalArgumentException if the format of the file is not supported.
+   */
   @Override
-  public void loadImagePixelsFromPPM(BufferedReader reader, String imageName) throws IOException {
-    String magicNumber = reader.readLine().trim();
-    validateMagicNumber(magicNumber);
-
-    String line = skipComments(reader);
-
-    int[] dimensions = parseDimensions(line);
-    int width = dimensions[0];
-    int height = dimensions[1];
-
-    int maxColorValue = parseMaxColorValue(reader);
-
-    Pixel[][] pixels = readAndConstructPixels(reader, width, height, maxColorValue);
-    Image img = new SimpleImage(pixels);
-    imageMap.put(imageName, img);
+  public void loadImagePixels(Path path, String imageName) throws IOException {
+    PackedImage image = prefetcher.take(path);
+    imageMap.put(imageName, image != null ? image : decoder.decode(path));
   }
 
-  private void validateMagicNumber(String magicNumber) {
-    if (!magicNumber.equals("P3")) {
-      throw new IllegalArgumentException(
-          "Invalid PPM file: expected 'P3', found '" + magicNumber + "'.");
-    }
-  }
 
-  private String skipComments(BufferedReader reader) throws IOException {
-    String line;
-    while ((line = reader.readLine().trim()).startsWith("#")) {
-      System.out.println("Skipping comment: " + line);
+  @Override
+  public void loadImagePixelsFromPPM(BufferedReader reader, String imageName) throws IOException {
+    PpmReader ppm = new PpmReader(PpmReader.channelOf(reader));
+    ppm.readHeader();
+    if (ppm.isBinary()) {
+      throw new IllegalArgumentException("Invalid PPM file: expected 'P3', found 'P6'.");
     }
-    return line;
+    imageMap.put(imageName, readPixels(ppm));
   }
 
-  private int[] parseDimensions(String line) {
-    String[] dimensions = line.split("\\s+");
-    return new int[]{Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1])};
+  /**
+   * Loads an ASCII (P3) or binary (P6) PPM file. The file is read through a buffered channel and
+   * parsed straight into the pixel buffer of the new image; the pixels of a binary file are
+   * memory-mapped.
+   *
+   * @param path      path of the PPM file.
+   * @param imageName name to store the image under.
+   * @throws IOException              if the file cannot be read.
+   * @throws IllegalArgumentException if the file is not a valid PPM file.
+   */
+  @Override
+  public void loadImagePixelsFromPPM(Path path, String imageName) throws IOException {
+    PackedImage image = prefetcher.take(path);
+    imageMap.put(imageName, image != null ? image : readPpm(path, pool));
   }
 
-  private int parseMaxColorValue(BufferedReader reader) throws IOException {
-    int maxColorValue = Integer.parseInt(reader.readLine().trim());
-    if (maxColorValue != 255) {
-      throw new IllegalArgumentException("Invalid PPM file: max color value must be 255.");
-    }
-    return maxColorValue;
+  /**
+   * Starts decoding an image or PPM file on a background thread, while the handler goes on with
+   * its current operations. The next load of the file takes the decoded image if the file has not
+   * changed since. The background thread decodes into buffers of its own, which join the pool of
+   * this handler once the image is loaded and later dropped.
+   *
+   * @param path path of the image or PPM file.
+   */
+  @Override
+  public void prefetch(Path path) {
+    String name = path.toString();
+    prefetcher.prefetch(path, name.endsWith(".ppm") || name.endsWith(".p3")
+        ? file -> readPpm(file, new PixelBufferPool())
+        : file -> new ImageDecoder(new PixelBufferPool()).decode(file));
   }
 
-  private Pixel[][] readAndConstructPixels(BufferedReader reader, int width, int height,
-      int maxColorValue) throws IOException {
-    StringBuilder pixelData = new StringBuilder();
-    String line;
-    while ((line = reader.readLine()) != null) {
-      pixelData.append(line.trim()).append(" ");
-    }
-
-    String[] pixelValues = pixelData.toString().trim().split("\\s+");
-    validatePixelValues(pixelValues, width, height);
-
-    return constructPixels(pixelValues, width, height, maxColorValue);
+  @Override
+  public void cancelPrefetches() {
+    prefetcher.cancel();
   }
 
-  private void validatePixelValues(String[] pixelValues, int width, int height) {
-    if (pixelValues.length != width * height * 3) {
-      throw new IllegalArgumentException(
-          "Invalid PPM file: expected " + (width * height * 3) + " pixel values but found "
-              + pixelValues.length + ".");
+  private static PackedImage readPpm(Path path, PixelBufferPool pool) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      PpmReader ppm = new PpmReader(channel);
+      ppm.readHeader();
+      return readPixels(ppm, pool);
     }
   }
 
-  private Pixel[][] constructPixels(String[] pixelValues, int width, int height,
-      int maxColorValue) {
-    Pixel[][] pixels = new SimplePixel[width][height];
-    int index = 0;
-    for (int j = 0; j < height; j++) {
-      for (int i = 0; i < width; i++) {
-        int red = Integer.parseInt(pixelValues[index++]);
-        int green = Integer.parseInt(pixelValues[index++]);
-        int blue = Integer.parseInt(pixelValues[index++]);
-
-        red = adjustColorValue(red, maxColorValue);
-        green = adjustColorValue(green, maxColorValue);
-        blue = adjustColorValue(blue, maxColorValue);
-
-        pixels[i][j] = new SimplePixel(red, green, blue);
-      }
-    }
-    return pixels;
+  private PackedImage readPixels(PpmReader ppm) throws IOException {
+    return readPixels(ppm, pool);
   }
 
-  private int adjustColorValue(int color, int maxColorValue) {
-    return (maxColorValue != 255) ? (color * 255) / maxColorValue : color;
+  private static PackedImage readPixels(PpmReader ppm, PixelBufferPool pool) throws IOException {
+    int size = ppm.getWidth() * ppm.getHeight();
+    PackedImage image = new PackedImage(ppm.getWidth(), ppm.getHeight(), pool.borrow(size), true);
+    ppm.readPixels(image.getData());
+    return image;
   }
 
 
@@ -184,6 +194,75 @@ public class SimpleImageHandler implements ImageHandler {
     return outputStream;
   }
 
+  /**
+   * Encodes the specified image in the given format and writes it to a channel. PPM images are
+   * encoded row by row by {@link PpmWriter}: "ppm" writes binary P6 and "p3" writes ASCII P3. For
+   * every other format the pixel buffer of the image is handed to ImageIO as the raster of a
+   * BufferedImage, so the encoder reads the rows straight from it.
+   *
+   * @param imageName name of the image to be written.
+   * @param format    informal name of the format, such as png, jpg, ppm or p3.
+   * @param output    channel to write the encoded image to; it is not closed.
+   * @throws IOException if an error occurs while writing.
+   * @throws IllegalArgumentException if no image is found with the specified name or the format is
+   *                                  not supported.
+   */
+  @Override
+  public void write(String imageName, String format, WritableByteChannel output)
+      throws IOException {
+    Image image = imageMap.get(imageName);
+    if (image == null) {
+      throw new IllegalArgumentException("No image found with name: " + imageName);
+    }
+    encoder(PackedImage.of(image), format).writeTo(output);
+  }
+
+  /**
+   * Takes a snapshot of the specified image for encoding in the given format. The pixel buffer is
+   * copied, which costs far less than encoding it, so the stored image is free to change or be
+   * replaced while the snapshot is written.
+   *
+   * @param imageName name of the image to be written.
+   * @param format    informal name of the format, as for {@link #write}.
+   * @return an encoder that writes the snapshot.
+   * @throws IllegalArgumentException if no image is found with the specified name or the format is
+   *                                  not supported.
+   */
+  @Override
+  public ImageEncoder encoder(String imageName, String format) {
+    Image image = imageMap.get(imageName);
+    if (image == null) {
+      throw new IllegalArgumentException("No image found with name: " + imageName);
+    }
+    if (!format.equalsIgnoreCase("ppm") && !format.equalsIgnoreCase("p3")
+        && !ImageIO.getImageWritersByFormatName(format).hasNext()) {
+      throw new IllegalArgumentException("Unsupported image format: " + format);
+    }
+    PackedImage packed = PackedImage.of(image);
+    if (packed == image) {
+      int size = packed.getWidth() * packed.getHeight();
+      packed = new PackedImage(packed.getWidth(), packed.getHeight(),
+          Arrays.copyOf(packed.getData(), size));
+    }
+    return encoder(packed, format);
+  }
+
+  private static ImageEncoder encoder(PackedImage image, String format) {
+    if (format.equalsIgnoreCase("ppm")) {
+      return output -> PpmWriter.writeBinary(image, output);
+    }
+    if (format.equalsIgnoreCase("p3")) {
+      return output -> PpmWriter.writeAscii(image, output);
+    }
+    return output -> {
+      OutputStream stream = new BufferedOutputStream(Channels.newOutputStream(output));
+      if (!ImageIO.write(image.asBufferedImage(), format, stream)) {
+        throw new IllegalArgumentException("Unsupported image format: " + format);
+      }
+      stream.flush();
+    };
+  }
+
   /**
    * Creates a new image consisting only of the blue component of the image specified.
    *
@@ -199,18 +278,8 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    Pixel[][] modifiedPixels = new SimplePixel[image.getWidth()][image.getHeight()];
-
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        Pixel currentPixel = image.getPixel(x, y);
-        int blueComponent = currentPixel.getB();
-        Pixel newPixel = new SimplePixel(blueComponent, blueComponent, blueComponent);
-        modifiedPixels[x][y] = newPixel;
-      }
-    }
-    Image resultImage = new SimpleImage(modifiedPixels);
-    imageMap.put(modifiedImageName, resultImage);
+    memoizedUnlessInPlace("blue-component", modifiedImageName,
+        () -> applyAndStore(imageName, modifiedImageName, image, componentOperation(0)), image);
   }
 
   /**
@@ -228,18 +297,8 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    Pixel[][] greenPixels = new SimplePixel[image.getWidth()][image.getHeight()];
-
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        Pixel currentPixel = image.getPixel(x, y);
-        int greenComponent = currentPixel.getG();
-        Pixel newPixel = new SimplePixel(greenComponent, greenComponent, greenComponent);
-        greenPixels[x][y] = newPixel;
-      }
-    }
-    Image resultImage = new SimpleImage(greenPixels);
-    imageMap.put(modifiedImageName, resultImage);
+    memoizedUnlessInPlace("green-component", modifiedImageName,
+        () -> applyAndStore(imageName, modifiedImageName, image, componentOperation(8)), image);
   }
 
 
@@ -257,18 +316,8 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    Pixel[][] redPixels = new SimplePixel[image.getWidth()][image.getHeight()];
-
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        Pixel currentPixel = image.getPixel(x, y);
-        int redComponent = currentPixel.getR();
-        Pixel newPixel = new SimplePixel(redComponent, redComponent, redComponent);
-        redPixels[x][y] = newPixel;
-      }
-    }
-    Image resultImage = new SimpleImage(redPixels);
-    imageMap.put(modifiedImageName, resultImage);
+    memoizedUnlessInPlace("red-component", modifiedImageName,
+        () -> applyAndStore(imageName, modifiedImageName, image, componentOperation(16)), image);
   }
 
 
@@ -285,20 +334,8 @@ public class SimpleImageHandler implements ImageHandler {
     if (image == null) {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
-    Pixel[][] valuePixels = new SimplePixel[image.getWidth()][image.getHeight()];
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        Pixel currentPixel = image.getPixel(x, y);
-        int red = currentPixel.getR();
-        int green = currentPixel.getG();
-        int blue = currentPixel.getB();
-        int value = Math.max(red, Math.max(green, blue));
-        Pixel newPixel = new SimplePixel(value, value, value);
-        valuePixels[x][y] = newPixel;
-      }
-    }
-    Image resultImage = new SimpleImage(valuePixels);
-    imageMap.put(resultName, resultImage);
+    memoizedUnlessInPlace("value-component", resultName,
+        () -> applyAndStore(imageName, resultName, image, VALUE), image);
   }
 
 
@@ -316,29 +353,8 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    Pixel[][] intensityPixels = new SimplePixel[image.getWidth()][image.getHeight()];
-
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        Pixel currentPixel = image.getPixel(x, y);
-        int intensity = (currentPixel.getR() + currentPixel.getG() + currentPixel.getB()) / 3;
-        Pixel newPixel = new SimplePixel(intensity, intensity, intensity);
-        intensityPixels[x][y] = newPixel;
-      }
-    }
-    Image resultImage = new SimpleImage(intensityPixels);
-    imageMap.put(resultName, resultImage);
-  }
-
-
-  private Pixel applyTransformation(Pixel pixel, double[][] matrix) {
-    int red = (int) Math.min(255,
-        matrix[0][0] * pixel.getR() + matrix[0][1] * pixel.getG() + matrix[0][2] * pixel.getB());
-    int green = (int) Math.min(255,
-        matrix[1][0] * pixel.getR() + matrix[1][1] * pixel.getG() + matrix[1][2] * pixel.getB());
-    int blue = (int) Math.min(255,
-        matrix[2][0] * pixel.getR() + matrix[2][1] * pixel.getG() + matrix[2][2] * pixel.getB());
-    return new SimplePixel(red, green, blue);
+    memoizedUnlessInPlace("intensity-component", resultName,
+        () -> applyAndStore(imageName, resultName, image, INTENSITY), image);
   }
 
 
@@ -357,20 +373,8 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    double[][] lumaMatrix = {
-        {0.2126, 0.7152, 0.0722},
-        {0.2126, 0.7152, 0.0722},
-        {0.2126, 0.7152, 0.0722}
-    };
-
-    Pixel[][] lumaPixels = new Pixel[image.getWidth()][image.getHeight()];
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        lumaPixels[x][y] = applyTransformation(image.getPixel(x, y), lumaMatrix);
-      }
-    }
-    Image lumaImage = new SimpleImage(lumaPixels);
-    imageMap.put(resultName, lumaImage);
+    memoizedUnlessInPlace("luma-component", resultName,
+        () -> applyAndStore(imageName, resultName, image, mixOperation(ColorMatrix.LUMA)), image);
   }
 
 
@@ -389,14 +393,33 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    Pixel[][] flippedPixels = new SimplePixel[image.getWidth()][image.getHeight()];
-
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        flippedPixels[x][image.getHeight() - 1 - y] = image.getPixel(x, y);
+    PackedImage target = inPlaceTarget(imageName, resultName, image);
+    if (target != null) {
+      int width = target.getWidth();
+      int height = target.getHeight();
+      int[] data = target.getData();
+      try (Workspace workspace = workspace()) {
+        int[] row = workspace.ints(width);
+        for (int y = 0; y < height / 2; y++) {
+          int opposite = (height - 1 - y) * width;
+          System.arraycopy(data, y * width, row, 0, width);
+          System.arraycopy(data, opposite, data, y * width, width);
+          System.arraycopy(row, 0, data, opposite, width);
+        }
       }
+      modifiedKeepingHistogram(target);
+      return;
+    }
+
+    PackedImage source = PackedImage.of(image);
+    int width = source.getWidth();
+    int height = source.getHeight();
+    PackedImage resultImage = newImage(width, height);
+    for (int y = 0; y < height; y++) {
+      System.arraycopy(source.getData(), y * width, resultImage.getData(),
+          (height - 1 - y) * width, width);
     }
-    Image resultImage = new SimpleImage(flippedPixels);
+    copyHistogram(source, resultImage);
     imageMap.put(resultName, resultImage);
   }
 
@@ -415,15 +438,34 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    Pixel[][] flippedPixels = new SimplePixel[image.getWidth()][image.getHeight()];
-
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        flippedPixels[image.getWidth() - 1 - x][y] = image.getPixel(x, y);
+    PackedImage target = inPlaceTarget(imageName, resultName, image);
+    if (target != null) {
+      int width = target.getWidth();
+      int[] data = target.getData();
+      for (int offset = 0; offset < width * target.getHeight(); offset += width) {
+        for (int left = offset, right = offset + width - 1; left < right; left++, right--) {
+          int pixel = data[left];
+          data[left] = data[right];
+          data[right] = pixel;
+        }
+      }
+      modifiedKeepingHistogram(target);
+      return;
+    }
+
+    PackedImage source = PackedImage.of(image);
+    int width = source.getWidth();
+    int height = source.getHeight();
+    int[] data = source.getData();
+    PackedImage resultImage = newImage(width, height);
+    int[] result = resultImage.getData();
+    for (int y = 0; y < height; y++) {
+      int offset = y * width;
+      for (int x = 0; x < width; x++) {
+        result[offset + width - 1 - x] = data[offset + x];
       }
     }
-
-    Image resultImage = new SimpleImage(flippedPixels);
+    copyHistogram(source, resultImage);
     imageMap.put(resultName, resultImage);
   }
 
@@ -441,22 +483,27 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    double[][] sepiaMatrix = {
-        {0.393, 0.769, 0.189},
-        {0.349, 0.686, 0.168},
-        {0.272, 0.534, 0.131}
-    };
-
-    Pixel[][] sepiaPixels = new Pixel[image.getWidth()][image.getHeight()];
+    memoizedUnlessInPlace("sepia", resultName,
+        () -> applyAndStore(imageName, resultName, image, mixOperation(ColorMatrix.SEPIA)), image);
+  }
 
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        sepiaPixels[x][y] = applyTransformation(image.getPixel(x, y), sepiaMatrix);
-      }
+  /**
+   * Mixes the channels of every pixel of the specified image through a color matrix and creates a
+   * new Image object for it.
+   *
+   * @param imageName         name of the source image.
+   * @param modifiedImageName name of the new image object after mixing the channels.
+   * @param matrix            color matrix to apply.
+   * @throws IllegalArgumentException if no image is found with the specified name.
+   */
+  @Override
+  public void applyColorMatrix(String imageName, String modifiedImageName, ColorMatrix matrix) {
+    Image image = imageMap.get(imageName);
+    if (image == null) {
+      throw new IllegalArgumentException("No image found with name: " + imageName);
     }
-
-    Image resultImage = new SimpleImage(sepiaPixels);
-    imageMap.put(resultName, resultImage);
+    memoizedUnlessInPlace("channel-mix " + matrix.fingerprint(), modifiedImageName,
+        () -> applyAndStore(imageName, modifiedImageName, image, mixOperation(matrix)), image);
   }
 
   /**
@@ -478,21 +525,29 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    Pixel[][] brightenedPixels = new SimplePixel[image.getWidth()][image.getHeight()];
-
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        Pixel pixel = image.getPixel(x, y);
-        int red = Math.min(255, Math.max(0, pixel.getR() + value));
-        int green = Math.min(255, Math.max(0, pixel.getG() + value));
-        int blue = Math.min(255, Math.max(0, pixel.getB() + value));
+    memoizedUnlessInPlace("brighten " + value, resultName,
+        () -> applyLookupAndStore(imageName, resultName, image, brightenOperation(value),
+            LookupTable.brighten(value)), image);
+  }
 
-        brightenedPixels[x][y] = new SimplePixel(red, green, blue);
-      }
+  /**
+   * Maps every pixel of the specified image through a lookup table and creates a new Image object
+   * for it.
+   *
+   * @param imageName         name of the source image.
+   * @param modifiedImageName name of the new image object after applying the table.
+   * @param table             per-channel lookup table to apply.
+   * @throws IllegalArgumentException if no image is found with the specified name.
+   */
+  @Override
+  public void applyLookupTable(String imageName, String modifiedImageName, LookupTable table) {
+    Image image = imageMap.get(imageName);
+    if (image == null) {
+      throw new IllegalArgumentException("No image found with name: " + imageName);
     }
-
-    Image resultImage = new SimpleImage(brightenedPixels);
-    imageMap.put(resultName, resultImage);
+    memoizedUnlessInPlace("lookup " + table.fingerprint(), modifiedImageName,
+        () -> applyLookupAndStore(imageName, modifiedImageName, image, RowOperation.lookup(table),
+            table), image);
   }
 
 
@@ -510,44 +565,8 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    int width = image.getWidth();
-    int height = image.getHeight();
-
-    Pixel[][] modifiedPixels = new SimplePixel[width][height];
-
-    double[][] blurKernel = {
-        {1 / 9.0, 1 / 9.0, 1 / 9.0},
-        {1 / 9.0, 1 / 9.0, 1 / 9.0},
-        {1 / 9.0, 1 / 9.0, 1 / 9.0}
-    };
-
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        double redSum = 0;
-        double greenSum = 0;
-        double blueSum = 0;
-
-        for (int i = -1; i <= 1; i++) {
-          for (int j = -1; j <= 1; j++) {
-            int neighborX = Math.min(Math.max(x + i, 0), width - 1);
-            int neighborY = Math.min(Math.max(y + j, 0), height - 1);
-            Pixel neighborPixel = image.getPixel(neighborX, neighborY);
-
-            redSum += blurKernel[i + 1][j + 1] * neighborPixel.getR();
-            greenSum += blurKernel[i + 1][j + 1] * neighborPixel.getG();
-            blueSum += blurKernel[i + 1][j + 1] * neighborPixel.getB();
-          }
-        }
-
-        int red = (int) Math.min(Math.max(redSum, 0), 255);
-        int green = (int) Math.min(Math.max(greenSum, 0), 255);
-        int blue = (int) Math.min(Math.max(blueSum, 0), 255);
-
-        modifiedPixels[x][y] = new SimplePixel(red, green, blue);
-      }
-    }
-    Image blurredImage = new SimpleImage(modifiedPixels);
-    imageMap.put(modifiedImageName, blurredImage);
+    memoizedUnlessInPlace("blur", modifiedImageName,
+        () -> applyAndStore(imageName, modifiedImageName, image, blurOperation()), image);
   }
 
 
@@ -565,46 +584,352 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    int width = image.getWidth();
-    int height = image.getHeight();
+    memoizedUnlessInPlace("sharpen", modifiedImageName,
+        () -> applyAndStore(imageName, modifiedImageName, image, sharpenOperation()), image);
+  }
 
-    Pixel[][] modifiedPixels = new SimplePixel[width][height];
+  /**
+   * Computes a row operation over a rectangle of an image. Only the pixels inside the rectangle are
+   * computed; the rest of each row is copied from the image unchanged.
+   *
+   * @param image     source image.
+   * @param operation operation to compute.
+   * @param x         left edge of the rectangle.
+   * @param y         top edge of the rectangle.
+   * @param width     width of the rectangle.
+   * @param height    height of the rectangle.
+   * @return a new image holding the result.
+   * @throws IllegalArgumentException if the rectangle is not inside the image.
+   */
+  PackedImage applyRegion(Image image, RowOperation operation, int x, int y, int width,
+      int height) {
+    PackedImage source = PackedImage.of(image);
+    int imageWidth = source.getWidth();
+    int imageHeight = source.getHeight();
+    if (x < 0 || y < 0 || width < 0 || height < 0 || x + width > imageWidth
+        || y + height > imageHeight) {
+      throw new IllegalArgumentException("Region is outside the image");
+    }
+    int[] data = source.getData();
+    PackedImage resultImage = newImage(imageWidth, imageHeight);
+    int[] result = resultImage.getData();
+    for (int row = 0; row < imageHeight; row++) {
+      int offset = row * imageWidth;
+      if (row < y || row >= y + height) {
+        System.arraycopy(data, offset, result, offset, imageWidth);
+        continue;
+      }
+      System.arraycopy(data, offset, result, offset, x);
+      operation.apply(data, result, imageWidth, imageHeight, row, x, x + width);
+      System.arraycopy(data, offset + x + width, result, offset + x + width,
+          imageWidth - x - width);
+    }
+    return resultImage;
+  }
 
-    int[][] sharpenKernel = {
-        {0, -1, 0},
-        {-1, 5, -1},
-        {0, -1, 0}
-    };
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        int redSum = 0;
-        int greenSum = 0;
-        int blueSum = 0;
+  /**
+   * Computes a row operation over a whole image.
+   *
+   * @param image     source image.
+   * @param operation operation to compute.
+   * @return a new image holding the result.
+   */
+  PackedImage applyAll(Image image, RowOperation operation) {
+    return applyRegion(image, operation, 0, 0, image.getWidth(), image.getHeight());
+  }
 
-        for (int i = -1; i <= 1; i++) {
-          for (int j = -1; j <= 1; j++) {
-            int kernelValue = sharpenKernel[i + 1][j + 1];
+  /**
+   * Computes a row operation only over the pixels selected by a mask. The image is copied once and
+   * the operation is run over each selected run, so the cost follows the size of the selection.
+   *
+   * @param image     source image.
+   * @param operation operation to compute.
+   * @param mask      mask selecting the pixels to compute.
+   * @return a new image holding the result.
+   * @throws IllegalArgumentException if the mask and the image differ in size.
+   */
+  PackedImage applyMasked(Image image, RowOperation operation, Mask mask) {
+    PackedImage source = PackedImage.of(image);
+    int width = source.getWidth();
+    int height = source.getHeight();
+    if (mask.getWidth() != width || mask.getHeight() != height) {
+      throw new IllegalArgumentException("Mask size does not match the image");
+    }
+    int[] data = source.getData();
+    PackedImage resultImage = newImage(width, height);
+    int[] result = resultImage.getData();
+    System.arraycopy(data, 0, result, 0, width * height);
+    for (int y = 0; y < height; y++) {
+      int[] runs = mask.getRuns(y);
+      for (int i = 0; i < runs.length; i += 2) {
+        operation.apply(data, result, width, height, y, runs[i], runs[i + 1]);
+      }
+    }
+    return resultImage;
+  }
 
-            int neighborX = Math.min(Math.max(x + i, 0), width - 1);
-            int neighborY = Math.min(Math.max(y + j, 0), height - 1);
-            Pixel neighborPixel = image.getPixel(neighborX, neighborY);
+  /**
+   * Computes a row operation over a whole image and stores the result under the given name. See
+   * {@link #applyAndStore(String, String, Image, RowOperation, Mask)}.
+   *
+   * @param imageName  name of the source image.
+   * @param resultName name to store the result under.
+   * @param image      source image.
+   * @param operation  operation to compute.
+   */
+  void applyAndStore(String imageName, String resultName, Image image, RowOperation operation) {
+    applyAndStore(imageName, resultName, image, operation, null);
+  }
 
-            redSum += kernelValue * neighborPixel.getR();
-            greenSum += kernelValue * neighborPixel.getG();
-            blueSum += kernelValue * neighborPixel.getB();
-          }
-        }
+  /**
+   * Computes a row operation over the pixels selected by a mask and stores the result under the
+   * given name. When the result replaces its own source, and the source is an image of this handler
+   * that is not stored under any other name, its buffer is updated in place instead of being copied
+   * to a new image. Pointwise operations write straight back to the buffer; stencils keep copies of
+   * the few source rows they still need in a rolling row buffer.
+   *
+   * @param imageName  name of the source image.
+   * @param resultName name to store the result under.
+   * @param image      source image.
+   * @param operation  operation to compute.
+   * @param mask       mask selecting the pixels to compute, or null for the whole image.
+   */
+  void applyAndStore(String imageName, String resultName, Image image, RowOperation operation,
+      Mask mask) {
+    PackedImage target = inPlaceTarget(imageName, resultName, image);
+    if (target == null) {
+      imageMap.put(resultName, mask == null ? applyAll(image, operation)
+          : applyMasked(image, operation, mask));
+      return;
+    }
+    if (mask != null && (mask.getWidth() != target.getWidth()
+        || mask.getHeight() != target.getHeight())) {
+      throw new IllegalArgumentException("Mask size does not match the image");
+    }
+    if (operation.radius() == 0) {
+      applyPointwiseInPlace(target, operation, mask);
+    } else {
+      applyStencilInPlace(target, operation, mask);
+    }
+    target.modified();
+  }
+
+  /**
+   * Stores the result of an operation under the given name, taking it from the result cache when
+   * the same operation already ran on the same pixels. Otherwise the operation runs and a copy of
+   * its result is cached, unless the operation updated its source in place. The key is built
+   * before the operation runs, since the operation may update its source in place.
+   *
+   * @param operation  name and parameters of the operation.
+   * @param resultName name the operation stores its result under.
+   * @param compute    runs the operation.
+   * @param inputs     images the operation reads; null for a missing optional input.
+   */
+  void memoized(String operation, String resultName, Runnable compute, Image... inputs) {
+    if (results == null) {
+      compute.run();
+      return;
+    }
+    String key = ResultCache.key(operation, inputs);
+    PackedImage cached = results.get(key);
+    if (cached != null) {
+      imageMap.put(resultName, cached);
+      return;
+    }
+    compute.run();
+    Image result = imageMap.get(resultName);
+    for (Image input : inputs) {
+      if (input == result) {
+        return;
+      }
+    }
+    results.put(key, PackedImage.of(result));
+  }
+
+  /**
+   * Runs an operation that updates its source in place when it can, as {@link #memoized} does
+   * otherwise. An edit that replaces its source, as every edit the GUI makes to its current image
+   * does, runs in place straight away: its result is never cached, so hashing its source for a key
+   * would be wasted.
+   *
+   * @param operation  name and parameters of the operation.
+   * @param resultName name the operation stores its result under.
+   * @param compute    runs the operation.
+   * @param inputs     images the operation reads, its source first; null for a missing optional
+   *                   input.
+   */
+  void memoizedUnlessInPlace(String operation, String resultName, Runnable compute,
+      Image... inputs) {
+    if (inPlaceTarget(resultName, resultName, inputs[0]) != null) {
+      compute.run();
+      return;
+    }
+    memoized(operation, resultName, compute, inputs);
+  }
 
-        int red = Math.min(Math.max(redSum, 0), 255);
-        int green = Math.min(Math.max(greenSum, 0), 255);
-        int blue = Math.min(Math.max(blueSum, 0), 255);
+  /**
+   * Maps an image through a per-channel lookup table and stores the result under the given name.
+   * If the histograms of the source are already known, the histograms of the result are derived
+   * from them, so the result is never counted.
+   *
+   * @param imageName  name of the source image.
+   * @param resultName name to store the result under.
+   * @param image      source image.
+   * @param operation  operation mapping each pixel exactly as the table does.
+   * @param table      table applied by the operation.
+   */
+  void applyLookupAndStore(String imageName, String resultName, Image image,
+      RowOperation operation, LookupTable table) {
+    int[][] histogram = image instanceof PackedImage && ((PackedImage) image).hasHistogram()
+        ? ((PackedImage) image).getHistogram() : null;
+    applyAndStore(imageName, resultName, image, operation);
+    if (histogram != null) {
+      ((PackedImage) imageMap.get(resultName)).setHistogram(table.mapHistogram(histogram));
+    }
+  }
 
-        modifiedPixels[x][y] = new SimplePixel(red, green, blue);
+  /**
+   * Marks an image as changed by an operation that only moved its pixels, such as a flip, so its
+   * histograms stay valid.
+   */
+  private static void modifiedKeepingHistogram(PackedImage image) {
+    int[][] histogram = image.hasHistogram() ? image.getHistogram() : null;
+    image.modified();
+    if (histogram != null) {
+      image.setHistogram(histogram);
+    }
+  }
+
+  private static void copyHistogram(PackedImage source, PackedImage result) {
+    if (source.hasHistogram()) {
+      result.setHistogram(source.getHistogram());
+    }
+  }
+
+  /**
+   * Gets the image to update in place for an operation, or null if the result must go to a new
+   * image. Only buffers borrowed by this handler are changed in place, and only when no other name
+   * refers to the same image, either directly or through a crop.
+   */
+  PackedImage inPlaceTarget(String imageName, String resultName, Image image) {
+    if (!imageName.equals(resultName) || !(image instanceof PackedImage)
+        || !((PackedImage) image).isPooled() || store.get(imageName) != image
+        || store.references(image) != 1) {
+      return null;
+    }
+    return (PackedImage) image;
+  }
+
+  private void applyPointwiseInPlace(PackedImage image, RowOperation operation, Mask mask) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] data = image.getData();
+    int[] wholeRow = {0, width};
+    for (int y = 0; y < height; y++) {
+      int[] runs = mask == null ? wholeRow : mask.getRuns(y);
+      for (int i = 0; i < runs.length; i += 2) {
+        operation.apply(data, data, width, height, y, runs[i], runs[i + 1]);
+      }
+    }
+  }
+
+  /**
+   * Runs a stencil in place, row by row from the top. Before a row is overwritten its original is
+   * saved, so the rows below can still read it. Each row is computed from a window holding the
+   * original rows within the radius, treated as a small image of its own; the window is clamped to
+   * the image the same way the stencil clamps its neighbours, so the result matches a computation
+   * into a separate buffer.
+   */
+  private void applyStencilInPlace(PackedImage image, RowOperation operation, Mask mask) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] data = image.getData();
+    int radius = operation.radius();
+    int[] wholeRow = {0, width};
+    try (Workspace workspace = workspace()) {
+      int[] saved = workspace.ints(radius * width);
+      int[] window = workspace.ints((2 * radius + 1) * width);
+      int[] result = workspace.ints((2 * radius + 1) * width);
+      for (int y = 0; y < height; y++) {
+        int[] runs = mask == null ? wholeRow : mask.getRuns(y);
+        if (runs.length > 0) {
+          int top = Math.max(0, y - radius);
+          int bottom = Math.min(height - 1, y + radius);
+          for (int row = top; row <= bottom; row++) {
+            if (row < y) {
+              System.arraycopy(saved, (row % radius) * width, window, (row - top) * width, width);
+            } else {
+              System.arraycopy(data, row * width, window, (row - top) * width, width);
+            }
+          }
+          int offset = (y - top) * width;
+          System.arraycopy(window, offset, result, offset, width);
+          for (int i = 0; i < runs.length; i += 2) {
+            operation.apply(window, result, width, bottom - top + 1, y - top, runs[i],
+                runs[i + 1]);
+          }
+          System.arraycopy(data, y * width, saved, (y % radius) * width, width);
+          System.arraycopy(result, offset, data, y * width, width);
+        } else {
+          System.arraycopy(data, y * width, saved, (y % radius) * width, width);
+        }
       }
     }
+  }
+
+  /**
+   * Opens a workspace for the intermediate buffers of one operation. The caller must close it,
+   * preferably with try-with-resources, when the operation finishes.
+   *
+   * @return a new workspace.
+   */
+  Workspace workspace() {
+    return new Workspace(pool);
+  }
+
+  /**
+   * Creates an image whose pixel buffer is borrowed from the pool of this handler. The buffer is
+   * returned to the pool once the image is overwritten or removed from the map. Its initial
+   * contents are undefined, so the caller must write every pixel.
+   *
+   * @param width  width of the image.
+   * @param height height of the image.
+   * @return the new image.
+   */
+  PackedImage newImage(int width, int height) {
+    return new PackedImage(width, height, pool.borrow(width * height), true);
+  }
+
+  RowOperation blurOperation() {
+    return RowOperation.stencil(1, kernels::blur);
+  }
+
+  RowOperation sharpenOperation() {
+    return RowOperation.stencil(1, kernels::sharpen);
+  }
+
+  RowOperation mixOperation(ColorMatrix matrix) {
+    return (source, destination, width, height, y, fromX, toX) ->
+        kernels.colorMatrix(source, destination, y * width + fromX, y * width + toX, matrix);
+  }
+
+  RowOperation brightenOperation(int value) {
+    return (source, destination, width, height, y, fromX, toX) ->
+        kernels.brighten(source, destination, y * width + fromX, y * width + toX, value);
+  }
+
+  /**
+   * Creates a greyscale operation that copies one channel of each pixel to all three channels.
+   *
+   * @param shift bit offset of the channel in a packed pixel: 16 for red, 8 for green, 0 for blue.
+   * @return the row operation.
+   */
+  static RowOperation componentOperation(int shift) {
+    return RowOperation.pointwise(rgb -> grey((rgb >> shift) & 0xFF));
+  }
 
-    Image sharpenedImage = new SimpleImage(modifiedPixels);
-    imageMap.put(modifiedImageName, sharpenedImage);
+  private static int grey(int value) {
+    return PackedImage.pack(value, value, value);
   }
 
 
@@ -625,29 +950,9 @@ public class SimpleImageHandler implements ImageHandler {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    Pixel[][] redPixels = new SimplePixel[image.getWidth()][image.getHeight()];
-    Pixel[][] greenPixels = new SimplePixel[image.getWidth()][image.getHeight()];
-    Pixel[][] bluePixels = new SimplePixel[image.getWidth()][image.getHeight()];
-
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        Pixel currentPixel = image.getPixel(x, y);
-
-        int redComponent = currentPixel.getR();
-        int greenComponent = currentPixel.getG();
-        int blueComponent = currentPixel.getB();
-
-        redPixels[x][y] = new SimplePixel(redComponent, redComponent, redComponent);
-
-        greenPixels[x][y] = new SimplePixel(greenComponent, greenComponent, greenComponent);
-
-        bluePixels[x][y] = new SimplePixel(blueComponent, blueComponent, blueComponent);
-      }
-    }
-
-    Image redImage = new SimpleImage(redPixels);
-    Image greenImage = new SimpleImage(greenPixels);
-    Image blueImage = new SimpleImage(bluePixels);
+    Image redImage = applyAll(image, componentOperation(16));
+    Image greenImage = applyAll(image, componentOperation(8));
+    Image blueImage = applyAll(image, componentOperation(0));
 
     imageMap.put(redImageName, redImage);
     imageMap.put(greenImageName, greenImage);
@@ -687,21 +992,15 @@ public class SimpleImageHandler implements ImageHandler {
     int width = redImage.getWidth();
     int height = redImage.getHeight();
 
-    Pixel[][] combinedPixels = new SimplePixel[width][height];
-
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        int red = redImage.getPixel(x, y).getR();
-        int green = greenImage.getPixel(x, y).getG();
-        int blue = blueImage.getPixel(x, y).getB();
-
-        Pixel combinedPixel = new SimplePixel(red, green, blue);
-        combinedPixels[x][y] = combinedPixel;
-      }
+    int[] reds = PackedImage.of(redImage).getData();
+    int[] greens = PackedImage.of(greenImage).getData();
+    int[] blues = PackedImage.of(blueImage).getData();
+    PackedImage combinedImage = newImage(width, height);
+    int[] combined = combinedImage.getData();
+    for (int i = 0; i < width * height; i++) {
+      combined[i] = (reds[i] & 0xFF0000) | (greens[i] & 0x00FF00) | (blues[i] & 0x0000FF);
     }
 
-    Image combinedImage = new SimpleImage(combinedPixels);
-
     imageMap.put(modifiedImageName, combinedImage);
   }
 
@@ -3,14 +3,9 @@ package src.model;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Scanner;
 import java.util.Set;
 
 
@@ -50,91 +45,12 @@ public class SimpleImageHandlerAdapter extends SimpleImageHandler implements Ima
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    double[] coefficients = computeQuadraticCoefficients(black, mid, white);
-    Image adjustedImage = applyLevelsAdjustment(image, coefficients);
-    super.getMap().put(modifiedImageName, adjustedImage);
+    LookupTable table = LookupTable.levels(black, mid, white);
+    memoizedUnlessInPlace("levels-adjust " + black + " " + mid + " " + white, modifiedImageName,
+        () -> applyLookupAndStore(imageName, modifiedImageName, image, RowOperation.lookup(table),
+            table), image);
   }
 
-  private double[] computeQuadraticCoefficients(int black, int mid, int white) {
-    double y = Math.pow(black, 2) * (mid - white)
-        - black * (Math.pow(mid, 2) - Math.pow(white, 2))
-        - mid * Math.pow(white, 2) + white * Math.pow(mid, 2);
-
-    double aA = -black * (128 - 255) + 128 * white - 255 * mid;
-    double bA =
-        Math.pow(black, 2) * (128 - 255) + 255 * Math.pow(mid, 2) - 128 * Math.pow(white, 2);
-    double cA = Math.pow(black, 2) * (255 * mid - 128 * white)
-        - black * (255 * Math.pow(mid, 2) - 128 * Math.pow(white, 2));
-
-    double a = aA / y;
-    double b = bA / y;
-    double c = cA / y;
-
-    return new double[]{a, b, c};
-  }
-
-  private Image applyLevelsAdjustment(Image image, double[] coefficients) {
-    double a = coefficients[0];
-    double b = coefficients[1];
-    double c = coefficients[2];
-
-    Pixel[][] adjustedPixels = new SimplePixel[image.getWidth()][image.getHeight()];
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        Pixel pixel = image.getPixel(x, y);
-        int adjustedR = applyQuadratic(a, b, c, pixel.getR());
-        int adjustedG = applyQuadratic(a, b, c, pixel.getG());
-        int adjustedB = applyQuadratic(a, b, c, pixel.getB());
-
-        adjustedPixels[x][y] = new SimplePixel(adjustedR, adjustedG, adjustedB);
-      }
-    }
-    return new SimpleImage(adjustedPixels);
-  }
-
-  private int applyQuadratic(double a, double b, double c, int value) {
-    double adjusted = a * Math.pow(value, 2) + b * value + c;
-    return (int) Math.max(0, Math.min(255, Math.round(adjusted)));
-  }
-
-  private double[][][] extractChannels(Image image) {
-    int width = image.getWidth();
-    int height = image.getHeight();
-
-    double[][] reds = new double[width][height];
-    double[][] greens = new double[width][height];
-    double[][] blues = new double[width][height];
-
-    for (int i = 0; i < width; i++) {
-      for (int j = 0; j < height; j++) {
-        Pixel pixel = image.getPixel(i, j);
-        reds[i][j] = pixel.getR();
-        greens[i][j] = pixel.getG();
-        blues[i][j] = pixel.getB();
-      }
-    }
-
-    return new double[][][]{reds, greens, blues};
-  }
-
-
-  private Pixel[][] recombineChannels(double[][] reds, double[][] greens, double[][] blues) {
-    int width = reds.length;
-    int height = reds[0].length;
-
-    Pixel[][] pixels = new SimplePixel[width][height];
-    for (int i = 0; i < width; i++) {
-      for (int j = 0; j < height; j++) {
-        int red = (int) Math.min(255, Math.max(0, reds[i][j]));
-        int green = (int) Math.min(255, Math.max(0, greens[i][j]));
-        int blue = (int) Math.min(255, Math.max(0, blues[i][j]));
-        pixels[i][j] = new SimplePixel(red, green, blue);
-      }
-    }
-    return pixels;
-  }
-
-
   /**
    * Compresses an image by applying lossy compression on its RGB channels.
    *
@@ -153,45 +69,51 @@ public class SimpleImageHandlerAdapter extends SimpleImageHandler implements Ima
     if (original == null) {
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
-    double[][][] channels = extractChannels(original);
-    double[][] reds = channels[0];
-    double[][] greens = channels[1];
-    double[][] blues = channels[2];
-    double[][][] compressedChannels = compressRGBChannels(original, reds, greens, blues,
-        percentage);
-    double[][] processedReds = compressedChannels[0];
-    double[][] processedGreens = compressedChannels[1];
-    double[][] processedBlues = compressedChannels[2];
-    Pixel[][] compressedPixels = recombineChannels(processedReds, processedGreens, processedBlues);
-
-    Image resultImage = new SimpleImage(compressedPixels);
-    super.getMap().put(modifiedImageName, resultImage);
+    memoized("compress " + percentage, modifiedImageName, () -> {
+      try (Workspace workspace = workspace()) {
+        super.getMap().put(modifiedImageName, compressChannels(original, percentage / 100,
+            workspace));
+      }
+    }, original);
   }
 
 
-  private double[][][] compressRGBChannels(Image original, double[][] reds, double[][] greens,
-      double[][] blues, double percentage) {
-
-    int width = original.getWidth();
-    int height = original.getHeight();
+  /**
+   * Compresses the red, green and blue channels of an image one after the other. Each channel is
+   * padded to a square power of two in workspace rows, which are reused for every channel.
+   */
+  private PackedImage compressChannels(Image original, double percentage, Workspace workspace) {
+    PackedImage source = PackedImage.of(original);
+    int width = source.getWidth();
+    int height = source.getHeight();
+    int[] data = source.getData();
+    PackedImage resultImage = newImage(width, height);
+    int[] result = resultImage.getData();
+    Arrays.fill(result, 0, width * height, 0);
 
     int paddedSize = padSize(Math.max(width, height));
+    double[][] channel = workspace.doubles(paddedSize, paddedSize);
+    double[][] spare = workspace.doubles(paddedSize, paddedSize);
+    double[] scratch = workspace.doubles(paddedSize);
 
-    double[][] paddedReds = padChannel(reds, paddedSize);
-    double[][] paddedGreens = padChannel(greens, paddedSize);
-    double[][] paddedBlues = padChannel(blues, paddedSize);
-
-    double compressionPercentage = percentage / 100;
-
-    double[][] compressedReds = compressChannel(paddedReds, compressionPercentage);
-    double[][] compressedGreens = compressChannel(paddedGreens, compressionPercentage);
-    double[][] compressedBlues = compressChannel(paddedBlues, compressionPercentage);
-
-    double[][] unpaddedReds = unpadChannel(compressedReds, width, height);
-    double[][] unpaddedGreens = unpadChannel(compressedGreens, width, height);
-    double[][] unpaddedBlues = unpadChannel(compressedBlues, width, height);
-
-    return new double[][][]{unpaddedReds, unpaddedGreens, unpaddedBlues};
+    for (int shift = 16; shift >= 0; shift -= 8) {
+      for (double[] row : channel) {
+        Arrays.fill(row, 0.0);
+      }
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          channel[x][y] = (data[y * width + x] >> shift) & 0xFF;
+        }
+      }
+      compressChannel(channel, spare, scratch, percentage);
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          int value = (int) Math.min(255, Math.max(0, channel[x][y]));
+          result[y * width + x] |= value << shift;
+        }
+      }
+    }
+    return resultImage;
   }
 
   private int padSize(int size) {
@@ -202,95 +124,57 @@ public class SimpleImageHandlerAdapter extends SimpleImageHandler implements Ima
     return paddedSize;
   }
 
-  private double[][] padChannel(double[][] channel, int paddedSize) {
-    double[][] paddedChannel = new double[paddedSize][paddedSize];
-    for (int i = 0; i < channel.length; i++) {
-      System.arraycopy(channel[i], 0, paddedChannel[i], 0, channel[i].length);
-    }
-    return paddedChannel;
-  }
-
-  private double[][] unpadChannel(double[][] paddedImage, int originalWidth, int originalHeight) {
-    double[][] originalImage = new double[originalWidth][originalHeight];
-
-    for (int i = 0; i < originalWidth; i++) {
-      System.arraycopy(paddedImage[i], 0, originalImage[i], 0, originalHeight);
-    }
-
-    return originalImage;
-  }
-
-
-  private double[][] compressChannel(double[][] channel, double percentage) {
+  private void compressChannel(double[][] channel, double[][] spare, double[] scratch,
+      double percentage) {
     int height = channel.length;
     int width = channel[0].length;
 
-    double[][] transformedImage = haarTransform2D(channel, width);
+    haarTransform2D(channel, spare, scratch, width);
 
-    double[] uniqueValues = getUniqueValues(transformedImage);
+    double[] uniqueValues = getUniqueValues(channel);
     double threshold = findThreshold(uniqueValues, percentage);
 
     for (int i = 0; i < width; i++) {
       for (int j = 0; j < height; j++) {
-        if (Math.abs(transformedImage[i][j]) < threshold) {
-          transformedImage[i][j] = 0.0;
+        if (Math.abs(channel[i][j]) < threshold) {
+          channel[i][j] = 0.0;
         }
       }
     }
 
-    transformedImage = inverseHaarTransform2D(transformedImage, width);
-
-    return transformedImage;
+    inverseHaarTransform2D(channel, spare, scratch, width);
   }
 
-  private double[][] haarTransform2D(double[][] x, int s) {
+  /**
+   * Transforms the rows of x in place. Each level writes its rows into spare rows, which are then
+   * swapped with the rows they replace, so no rows are allocated per level.
+   */
+  private void haarTransform2D(double[][] x, double[][] spare, double[] scratch, int s) {
     int c = s;
 
     while (c > 1) {
       for (int i = 0; i < s; i++) {
-        double[] row = new double[c];
-        System.arraycopy(x[i], 0, row, 0, c);
-        row = transformSequence1D(row);
-        System.arraycopy(row, 0, x[i], 0, c);
+        kernels.haarForward(x[i], scratch, c);
       }
 
-      for (int j = 0; j < s; j++) {
-        double[] column = new double[c];
-        for (int i = 0; i < c; i++) {
-          column[i] = x[i][j];
-        }
-        column = transformSequence1D(column);
-        for (int i = 0; i < c; i++) {
-          x[i][j] = column[i];
-        }
+      int half = c / 2;
+      for (int i = 0; i < half; i++) {
+        kernels.haarPairs(x[2 * i], x[2 * i + 1], spare[i], spare[half + i], s);
       }
+      swapRows(x, spare, c);
 
       c = c / 2;
     }
-
-    return x;
   }
 
-  private double[] transformSequence1D(double[] s) {
-    List<Double> avg = new ArrayList<>();
-    List<Double> diff = new ArrayList<>();
-
-    for (int i = 0; i < s.length; i += 2) {
-      double a = s[i];
-      double b = s[i + 1];
-      double av = (a + b) / Math.sqrt(2);
-      double di = (a - b) / Math.sqrt(2);
-      avg.add(av);
-      diff.add(di);
+  private static void swapRows(double[][] x, double[][] spare, int count) {
+    for (int i = 0; i < count; i++) {
+      double[] row = x[i];
+      x[i] = spare[i];
+      spare[i] = row;
     }
-
-    List<Double> result = new ArrayList<>(avg);
-    result.addAll(diff);
-
-    return result.stream().mapToDouble(Double::doubleValue).toArray();
   }
 
-
   private double findThreshold(double[] values, double percentage) {
     int numToReset = (int) (values.length * percentage);
     if (numToReset < 1) {
@@ -315,49 +199,22 @@ public class SimpleImageHandlerAdapter extends SimpleImageHandler implements Ima
     return uniqueValues.stream().mapToDouble(Double::doubleValue).toArray();
   }
 
-  private double[][] inverseHaarTransform2D(double[][] x, int s) {
+  private void inverseHaarTransform2D(double[][] x, double[][] spare, double[] scratch, int s) {
     int c = 2;
 
     while (c <= s) {
-      for (int j = 0; j < s; j++) {
-        double[] column = new double[c];
-        for (int i = 0; i < c; i++) {
-          column[i] = x[i][j];
-        }
-        column = inverseTransform1D(column);
-        for (int i = 0; i < c; i++) {
-          x[i][j] = column[i];
-        }
+      int half = c / 2;
+      for (int i = 0; i < half; i++) {
+        kernels.haarPairs(x[i], x[half + i], spare[2 * i], spare[2 * i + 1], s);
       }
+      swapRows(x, spare, c);
 
       for (int i = 0; i < s; i++) {
-        double[] row = new double[c];
-        System.arraycopy(x[i], 0, row, 0, c);
-        row = inverseTransform1D(row);
-        System.arraycopy(row, 0, x[i], 0, c);
+        kernels.haarInverse(x[i], scratch, c);
       }
 
       c = c * 2;
     }
-
-    return x;
-  }
-
-  private double[] inverseTransform1D(double[] s) {
-    double[] avg = Arrays.copyOfRange(s, 0, s.length / 2);
-    double[] diff = Arrays.copyOfRange(s, s.length / 2, s.length);
-
-    List<Double> result = new ArrayList<>();
-    for (int i = 0, j = 0; i < avg.length; i++, j++) {
-      double a = avg[i];
-      double b = diff[j];
-      double av = (a + b) / Math.sqrt(2);
-      double di = (a - b) / Math.sqrt(2);
-      result.add(av);
-      result.add(di);
-    }
-
-    return result.stream().mapToDouble(Double::doubleValue).toArray();
   }
 
   /**
@@ -376,7 +233,14 @@ public class SimpleImageHandlerAdapter extends SimpleImageHandler implements Ima
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    int[][] frequencies = analyzeColorLevels(image);
+    memoized("color-correct", modifiedImageName, () -> {
+      LookupTable table = colorCorrectTable(image);
+      applyLookupAndStore(imageName, modifiedImageName, image, RowOperation.lookup(table), table);
+    }, image);
+  }
+
+  private LookupTable colorCorrectTable(Image image) {
+    int[][] frequencies = PackedImage.of(image).getHistogram();
     int[] reds = frequencies[0];
     int[] greens = frequencies[1];
     int[] blues = frequencies[2];
@@ -387,25 +251,7 @@ public class SimpleImageHandlerAdapter extends SimpleImageHandler implements Ima
 
     int avgPeak = (redPeak + greenPeak + bluePeak) / 3;
 
-    Image correctedImage = populateColorCorrectedPixels(redPeak, greenPeak, bluePeak, avgPeak,
-        image);
-    super.getMap().put(modifiedImageName, correctedImage);
-  }
-
-  private Image populateColorCorrectedPixels(int redPeak, int greenPeak,
-      int bluePeak, int avgPeak, Image image) {
-    Pixel[][] correctedPixels = new SimplePixel[image.getWidth()][image.getHeight()];
-    for (int x = 0; x < image.getWidth(); x++) {
-      for (int y = 0; y < image.getHeight(); y++) {
-        Pixel pixel = image.getPixel(x, y);
-        int correctedR = Math.min(255, Math.max(0, pixel.getR() + avgPeak - redPeak));
-        int correctedG = Math.min(255, Math.max(0, pixel.getG() + avgPeak - greenPeak));
-        int correctedB = Math.min(255, Math.max(0, pixel.getB() + avgPeak - bluePeak));
-
-        correctedPixels[x][y] = new SimplePixel(correctedR, correctedG, correctedB);
-      }
-    }
-    return new SimpleImage(correctedPixels);
+    return LookupTable.offset(avgPeak - redPeak, avgPeak - greenPeak, avgPeak - bluePeak);
   }
 
   private int findPeak(int[] histogram) {
@@ -438,11 +284,13 @@ public class SimpleImageHandlerAdapter extends SimpleImageHandler implements Ima
       throw new IllegalArgumentException("No image found with name: " + imageName);
     }
 
-    BufferedImage histogramGraph = constructHistogram();
-    BufferedImage histogram = buildHistogramImage(sourceImage, histogramGraph);
+    memoized("histogram", modifiedImageName, () -> {
+      BufferedImage histogramGraph = constructHistogram();
+      BufferedImage histogram = buildHistogramImage(sourceImage, histogramGraph);
 
-    Image histogramImage = convertBufferedImageToImage(histogram);
-    super.getMap().put(modifiedImageName, histogramImage);
+      Image histogramImage = convertBufferedImageToImage(histogram);
+      super.getMap().put(modifiedImageName, histogramImage);
+    }, sourceImage);
   }
 
   private BufferedImage constructHistogram() {
@@ -474,7 +322,7 @@ public class SimpleImageHandlerAdapter extends SimpleImageHandler implements Ima
   }
 
   private BufferedImage buildHistogramImage(Image sourceImg, BufferedImage histogramGraph) {
-    int[][] colorLevels = analyzeColorLevels(sourceImg);
+    int[][] colorLevels = PackedImage.of(sourceImg).getHistogram();
     int[] reds = colorLevels[0];
     int[] greens = colorLevels[1];
     int[] blues = colorLevels[2];
@@ -504,189 +352,101 @@ public class SimpleImageHandlerAdapter extends SimpleImageHandler implements Ima
 
 
   /**
-   * To store frequencies from 0 to 255.
+   * To store frequencies from 0 to 255. The frequencies are counted once per version of the image
+   * and kept with it, so asking again for an unchanged image does not scan its pixels.
    *
    * @param inputImage input image from user
    * @return array of frequencies
    */
   public static int[][] analyzeColorLevels(Image inputImage) {
-    int[] redLevels = new int[256];
-    int[] greenLevels = new int[256];
-    int[] blueLevels = new int[256];
-
-    for (int widthIdx = 0; widthIdx < inputImage.getWidth(); widthIdx++) {
-      for (int heightIdx = 0; heightIdx < inputImage.getHeight(); heightIdx++) {
-        Pixel pixel = inputImage.getPixel(widthIdx, heightIdx);
-        redLevels[pixel.getR()]++;
-        greenLevels[pixel.getG()]++;
-        blueLevels[pixel.getB()]++;
-      }
-    }
-    return new int[][]{redLevels, greenLevels, blueLevels};
+    int[][] levels = PackedImage.of(inputImage).getHistogram();
+    return new int[][]{levels[0].clone(), levels[1].clone(), levels[2].clone()};
   }
 
+  /**
+   * Converts the drawn histogram to an image. The graph is drawn with its axes swapped, so pixel
+   * (x, y) of the image is taken from pixel (y, x) of the graph.
+   */
   private Image convertBufferedImageToImage(BufferedImage bufferedImage) {
     int width = bufferedImage.getWidth();
     int height = bufferedImage.getHeight();
-    Pixel[][] pixels = new SimplePixel[height][width];
+    PackedImage image = newImage(height, width);
+    int[] data = image.getData();
 
     for (int x = 0; x < height; x++) {
       for (int y = 0; y < width; y++) {
-        int rgb = bufferedImage.getRGB(y, x);
-        Color color = new Color(rgb);
-        pixels[x][y] = new SimplePixel(color.getRed(), color.getGreen(), color.getBlue());
+        data[y * height + x] = bufferedImage.getRGB(y, x) & 0xFFFFFF;
       }
     }
 
-    return new SimpleImage(pixels);
+    return image;
   }
 
 
   /**
-   * processes an image by reading its pixel data and dimesnions from a file and creating
-   * BufferedImage representation of it.
+   * processes an image by creating a BufferedImage representation of it. The packed pixels are
+   * copied straight into the raster of the BufferedImage, without going through the text form
+   * produced by save.
    *
    * @param imageName The name of the image to be processed.
    * @return Image of desired pixels
-   * @throws IOException if image formst is not recognized
+   * @throws IllegalArgumentException if no image is found with the specified name.
    */
-  public BufferedImage processImage(String imageName) throws IOException {
-    OutputStream outputStream = save(imageName);
-
-    String data = outputStream.toString();
-    Scanner sc = new Scanner(data);
-
-    int width = sc.nextInt();
-    int height = sc.nextInt();
-
-    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-    WritableRaster raster = image.getRaster();
-
-    int[] pixel = new int[3]; // RGB components
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        pixel[0] = sc.nextInt();   // red component
-        pixel[1] = sc.nextInt();   // green component
-        pixel[2] = sc.nextInt();   // blue component
-        raster.setPixel(x, y, pixel);
-      }
+  public BufferedImage processImage(String imageName) {
+    Image image = getImage(imageName);
+    if (image == null) {
+      throw new IllegalArgumentException("No image found with name: " + imageName);
     }
-
-    return image;
+    return PackedImage.of(image).toBufferedImage();
   }
 
   @Override
   public void blurWithSplit(String imageName, String modifiedImageName, int value) {
-    if (value < 0 || value > 100) {
-      throw new IllegalArgumentException("Value must be between 0 and 100");
-    }
-    Image image = getImage(imageName);
-    String intermediateImageName = "intermediateImageName";
-    blur(imageName, intermediateImageName);
-    Image intermediateImage = getImage(intermediateImageName);
-    Image splitImage = split(image, intermediateImage, value);
-    imageMap.put(modifiedImageName, splitImage);
-    imageMap.remove(intermediateImageName);
+    applyWithSplit(imageName, modifiedImageName, value, blurOperation());
   }
 
   @Override
   public void sharpenWithSplit(String imageName, String modifiedImageName, int value) {
-    if (value < 0 || value > 100) {
-      throw new IllegalArgumentException("Value must be between 0 and 100");
-    }
-    Image image = getImage(imageName);
-    String intermediateImageName = "intermediateImageName";
-    sharpen(imageName, intermediateImageName);
-    Image intermediateImage = getImage(intermediateImageName);
-    Image splitImage = split(image, intermediateImage, value);
-    imageMap.put(modifiedImageName, splitImage);
-    imageMap.remove(intermediateImageName);
+    applyWithSplit(imageName, modifiedImageName, value, sharpenOperation());
   }
 
   @Override
   public void sepiaWithSplit(String imageName, String modifiedImageName, int value) {
-    if (value < 0 || value > 100) {
-      throw new IllegalArgumentException("Value must be between 0 and 100");
-    }
-    Image image = getImage(imageName);
-    String intermediateImageName = "intermediateImageName";
-    sepia(imageName, intermediateImageName);
-    Image intermediateImage = getImage(intermediateImageName);
-    Image splitImage = split(image, intermediateImage, value);
-    imageMap.put(modifiedImageName, splitImage);
-    imageMap.remove(intermediateImageName);
+    applyWithSplit(imageName, modifiedImageName, value, mixOperation(ColorMatrix.SEPIA));
   }
 
   @Override
   public void lumaWithSplit(String imageName, String modifiedImageName, int value) {
-    if (value < 0 || value > 100) {
-      throw new IllegalArgumentException("Value must be between 0 and 100");
-    }
-    Image image = getImage(imageName);
-    String intermediateImageName = "intermediateImageName";
-    lumaComponent(imageName, intermediateImageName);
-    Image intermediateImage = getImage(intermediateImageName);
-    Image splitImage = split(image, intermediateImage, value);
-    imageMap.put(modifiedImageName, splitImage);
-    imageMap.remove(intermediateImageName);
+    applyWithSplit(imageName, modifiedImageName, value, mixOperation(ColorMatrix.LUMA));
   }
 
   @Override
   public void intensityWithSplit(String imageName, String modifiedImageName, int value) {
-    if (value < 0 || value > 100) {
-      throw new IllegalArgumentException("Value must be between 0 and 100");
-    }
-    Image image = getImage(imageName);
-    String intermediateImageName = "intermediateImageName";
-    intensityComponent(imageName, intermediateImageName);
-    Image intermediateImage = getImage(intermediateImageName);
-    Image splitImage = split(image, intermediateImage, value);
-    imageMap.put(modifiedImageName, splitImage);
-    imageMap.remove(intermediateImageName);
+    applyWithSplit(imageName, modifiedImageName, value, INTENSITY);
   }
 
   @Override
   public void valueWithSplit(String imageName, String modifiedImageName, int value) {
-    if (value < 0 || value > 100) {
-      throw new IllegalArgumentException("Value must be between 0 and 100");
-    }
-    Image image = getImage(imageName);
-    String intermediateImageName = "intermediateImageName";
-    valueComponent(imageName, intermediateImageName);
-    Image intermediateImage = getImage(intermediateImageName);
-    Image splitImage = split(image, intermediateImage, value);
-    imageMap.put(modifiedImageName, splitImage);
-    imageMap.remove(intermediateImageName);
+    applyWithSplit(imageName, modifiedImageName, value, VALUE);
   }
 
   @Override
   public void colorCorrectWithSplit(String imageName, String modifiedImageName, int value) {
-    if (value < 0 || value > 100) {
-      throw new IllegalArgumentException("Value must be between 0 and 100");
-    }
+    validateSplit(value);
     Image image = getImage(imageName);
-    String intermediateImageName = "intermediateImageName";
-    colorCorrect(imageName, intermediateImageName);
-    Image intermediateImage = getImage(intermediateImageName);
-    Image splitImage = split(image, intermediateImage, value);
-    imageMap.put(modifiedImageName, splitImage);
-    imageMap.remove(intermediateImageName);
+    if (image == null) {
+      throw new IllegalArgumentException("No image found with name: " + imageName);
+    }
+    applyWithSplit(imageName, modifiedImageName, value,
+        RowOperation.lookup(colorCorrectTable(image)));
   }
 
   @Override
   public void levelAdjustWithSplit(int black, int mid, int white, String imageName,
       String modifiedImageName, int value) {
-    if (value < 0 || value > 100) {
-      throw new IllegalArgumentException("Value must be between 0 and 100");
-    }
-    Image image = getImage(imageName);
-    String intermediateImageName = "intermediateImageName";
-    levelsAdjust(black, mid, white, imageName, intermediateImageName);
-    Image intermediateImage = getImage(intermediateImageName);
-    Image splitImage = split(image, intermediateImage, value);
-    imageMap.put(modifiedImageName, splitImage);
-    imageMap.remove(intermediateImageName);
+    validateSplit(value);
+    applyWithSplit(imageName, modifiedImageName, value,
+        RowOperation.lookup(LookupTable.levels(black, mid, white)));
   }
 
 
@@ -700,22 +460,51 @@ public class SimpleImageHandlerAdapter extends SimpleImageHandler implements Ima
    * @return Split image
    */
   public Image split(Image current, Image filtered, float widthPercentage) {
-    int percentageWidth = (int) (current.getWidth() * (widthPercentage / 100));
-    Pixel[][] splitImagePixels = new Pixel[current.getWidth()][current.getHeight()];
-    for (int i = 0; i < current.getWidth(); i++) {
-      for (int j = 0; j < current.getHeight(); j++) {
-        if (i <= percentageWidth) {
-          splitImagePixels[i][j] = new SimplePixel(filtered.getPixel(i, j).getR(),
-              filtered.getPixel(i, j).getG(),
-              filtered.getPixel(i, j).getB());
-        } else {
-          splitImagePixels[i][j] = new SimplePixel(current.getPixel(i, j).getR(),
-              current.getPixel(i, j).getG(),
-              current.getPixel(i, j).getB());
-        }
-      }
+    int width = current.getWidth();
+    int filteredWidth = splitWidth(width, widthPercentage);
+    int height = current.getHeight();
+    int[] currentData = PackedImage.of(current).getData();
+    int[] filteredData = PackedImage.of(filtered).getData();
+    PackedImage resultImage = newImage(width, height);
+    int[] result = resultImage.getData();
+    for (int offset = 0; offset < width * height; offset += width) {
+      System.arraycopy(filteredData, offset, result, offset, filteredWidth);
+      System.arraycopy(currentData, offset + filteredWidth, result, offset + filteredWidth,
+          width - filteredWidth);
     }
-    return new SimpleImage(splitImagePixels);
+    return resultImage;
+  }
+
+  /**
+   * Computes an operation on the left part of an image only, as a split preview. The right part
+   * of each row is copied from the image unchanged.
+   */
+  private void applyWithSplit(String imageName, String modifiedImageName, int value,
+      RowOperation operation) {
+    validateSplit(value);
+    Image image = getImage(imageName);
+    if (image == null) {
+      throw new IllegalArgumentException("No image found with name: " + imageName);
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    applyAndStore(imageName, modifiedImageName, image, operation,
+        Mask.rectangle(width, height, 0, 0, splitWidth(width, value), height));
+  }
+
+  private static void validateSplit(int value) {
+    if (value < 0 || value > 100) {
+      throw new IllegalArgumentException("Value must be between 0 and 100");
+    }
+  }
+
+  /**
+   * Gets the number of filtered columns of a split preview: every column up to and including the
+   * one at the given percentage of the width.
+   */
+  private static int splitWidth(int width, float widthPercentage) {
+    int percentageWidth = (int) (width * (widthPercentage / 100));
+    return Math.min(percentageWidth + 1, width);
   }
 
 
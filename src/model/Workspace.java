@@ -0,0 +1,100 @@
+package src.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scratch buffers for the intermediate results of a single operation. Intermediates are never
+ * stored in the image map: an operation opens a workspace, takes the buffers it needs from it and
+ * closes it when it is done, which releases every buffer at once. Int buffers are borrowed from
+ * the pixel buffer pool of the handler and returned to it on close. Buffers must not be used after
+ * the workspace is closed.
+ *
+ * <pre>
+ *   try (Workspace workspace = handler.workspace()) {
+ *     double[] row = workspace.doubles(width);
+ *     ...
+ *   }
+ * </pre>
+ */
+final class Workspace implements AutoCloseable {
+
+  private final PixelBufferPool pool;
+  private final List<int[]> ints = new ArrayList<>();
+  private final List<double[]> doubles = new ArrayList<>();
+  private boolean closed;
+
+  /**
+   * Constructs a workspace that borrows its int buffers from the given pool.
+   *
+   * @param pool pixel buffer pool of the handler.
+   */
+  Workspace(PixelBufferPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Gets a zero-filled int buffer that lives until the workspace is closed.
+   *
+   * @param length length of the buffer.
+   * @return the buffer.
+   */
+  int[] ints(int length) {
+    checkOpen();
+    int[] buffer = pool.borrow(length);
+    Arrays.fill(buffer, 0);
+    ints.add(buffer);
+    return buffer;
+  }
+
+  /**
+   * Gets a zero-filled double buffer that lives until the workspace is closed.
+   *
+   * @param length length of the buffer.
+   * @return the buffer.
+   */
+  double[] doubles(int length) {
+    checkOpen();
+    double[] buffer = new double[length];
+    doubles.add(buffer);
+    return buffer;
+  }
+
+  /**
+   * Gets a number of zero-filled double rows that live until the workspace is closed.
+   *
+   * @param rows   number of rows.
+   * @param length length of each row.
+   * @return the rows.
+   */
+  double[][] doubles(int rows, int length) {
+    double[][] buffers = new double[rows][];
+    for (int i = 0; i < rows; i++) {
+      buffers[i] = doubles(length);
+    }
+    return buffers;
+  }
+
+  /**
+   * Releases every buffer taken from this workspace.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    for (int[] buffer : ints) {
+      pool.release(buffer);
+    }
+    ints.clear();
+    doubles.clear();
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Workspace is closed");
+    }
+  }
+}
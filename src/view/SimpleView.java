@@ -1,5 +1,7 @@
 package src.view;
 
+import java.util.List;
+
 /**
  * A simple view class for displaying status messages related to image processing operations. It
  * returns messages indicating the success or failure of various actions, as well as error
@@ -142,4 +144,22 @@ public class SimpleView implements View {
     System.out.println("Downscale operation completed successfully");
   }
 
+  @Override
+  public void viewChannelMix(String[] args) {
+    System.out.println("Channel mix applied successfully");
+  }
+
+  @Override
+  public void viewCrop(String[] args) {
+    System.out.println("Crop operation completed successfully");
+  }
+
+  @Override
+  public void viewSkipped(List<String[]> commands) {
+    System.out.println("Skipped " + commands.size() + " command(s) whose results are never saved:");
+    for (String[] command : commands) {
+      System.out.println("  " + String.join(" ", command));
+    }
+  }
+
 }
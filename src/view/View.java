@@ -1,5 +1,7 @@
 package src.view;
 
+import java.util.List;
+
 /**
  * An interface representing the view for image processing operations. Provides methods for
  * displaying messages related to various image manipulation actions like loading, saving, and
@@ -174,5 +176,25 @@ public interface View {
    * @param args array of string arguments relevant to the downscale operation.
    */
   void viewDownscale(String[] args);
-}
 
+  /**
+   * Displays a message indicating that a channel mix operation has been completed successfully.
+   *
+   * @param args array of string arguments relevant to the channel mix operation.
+   */
+  void viewChannelMix(String[] args);
+
+  /**
+   * Displays a message indicating that a crop operation has been completed successfully.
+   *
+   * @param args array of string arguments relevant to the crop operation.
+   */
+  void viewCrop(String[] args);
+
+  /**
+   * Displays the commands of a script that were skipped because their results are never saved.
+   *
+   * @param commands skipped commands, each as its array of string arguments.
+   */
+  void viewSkipped(List<String[]> commands);
+}
@@ -0,0 +1,138 @@
+package test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import src.model.PackedImage;
+import src.model.SimpleImageHandlerAdapter;
+
+/**
+ * Compares the scalar and vector pixel kernels on a synthetic image. Each implementation is timed
+ * in its own JVM, so the JIT compiler only ever sees one of them, as in a real run of the program.
+ * JVM options given to the benchmark (for example {@code -XX:UseAVX=2}) are passed on to both runs.
+ *
+ * <p>Run it with {@code --add-modules jdk.incubator.vector}; without the module both columns use
+ * the scalar kernels. Arguments are the image size (default 2048) and the number of timed rounds
+ * per operation (default 20).
+ */
+public class KernelBenchmark {
+
+  private static final String[] OPERATIONS = {"brighten", "sepia", "luma", "blur", "sharpen",
+      "compress"};
+  private static final int WARMUP_ROUNDS = 20;
+
+  /**
+   * Runs the benchmark and prints the best time of each operation per kernel implementation.
+   *
+   * @param args optional image size and number of rounds.
+   * @throws IOException          if a benchmark JVM cannot be started.
+   * @throws InterruptedException if interrupted while waiting for a benchmark JVM.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length > 0 && args[0].equals("--measure")) {
+      measure(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+      return;
+    }
+    String size = args.length > 0 ? args[0] : "2048";
+    String rounds = args.length > 1 ? args[1] : "20";
+
+    Map<String, Double> scalar = fork("scalar", size, rounds);
+    Map<String, Double> vector = fork("vector", size, rounds);
+
+    System.out.printf("%sx%s image, best of %s rounds%n", size, size, rounds);
+    System.out.printf("%-10s %12s %12s %8s%n", "operation", "scalar ms", "vector ms", "speedup");
+    for (String operation : OPERATIONS) {
+      double scalarTime = scalar.get(operation);
+      double vectorTime = vector.get(operation);
+      System.out.printf("%-10s %12.2f %12.2f %7.2fx%n", operation, scalarTime, vectorTime,
+          scalarTime / vectorTime);
+    }
+  }
+
+  private static Map<String, Double> fork(String kernels, String size, String rounds)
+      throws IOException, InterruptedException {
+    List<String> command = new ArrayList<>();
+    command.add(ProcessHandle.current().info().command().orElse("java"));
+    command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+    command.add("-Dime.kernels=" + kernels);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(KernelBenchmark.class.getName());
+    command.add("--measure");
+    command.add(size);
+    command.add(rounds);
+
+    Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+    Map<String, Double> times = new LinkedHashMap<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(process.getInputStream()))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split(" ");
+        if (parts.length == 2 && parts[0].matches("[a-z]+")) {
+          times.put(parts[0], Double.parseDouble(parts[1]));
+        }
+      }
+    }
+    if (process.waitFor() != 0 || times.size() != OPERATIONS.length) {
+      throw new IllegalStateException("Benchmark run with " + kernels + " kernels failed");
+    }
+    return times;
+  }
+
+  private static void measure(int size, int rounds) {
+    // every round must run the kernels, not find the result of the round before in the cache
+    System.setProperty("ime.cache", "off");
+    int[] data = new int[size * size];
+    Random random = new Random(42);
+    for (int i = 0; i < data.length; i++) {
+      data[i] = random.nextInt(0x1000000);
+    }
+    SimpleImageHandlerAdapter handler = new SimpleImageHandlerAdapter();
+    handler.getMap().put("source", new PackedImage(size, size, data));
+
+    for (String operation : OPERATIONS) {
+      for (int i = 0; i < WARMUP_ROUNDS; i++) {
+        run(handler, operation);
+      }
+      long best = Long.MAX_VALUE;
+      for (int i = 0; i < rounds; i++) {
+        long start = System.nanoTime();
+        run(handler, operation);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      System.out.println(operation + " " + best / 1e6);
+    }
+  }
+
+  private static void run(SimpleImageHandlerAdapter handler, String operation) {
+    switch (operation) {
+      case "brighten":
+        handler.brighten("source", "result", 50);
+        break;
+      case "sepia":
+        handler.sepia("source", "result");
+        break;
+      case "luma":
+        handler.lumaComponent("source", "result");
+        break;
+      case "blur":
+        handler.blur("source", "result");
+        break;
+      case "sharpen":
+        handler.sharpen("source", "result");
+        break;
+      case "compress":
+        handler.compress("source", "result", 50);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown operation: " + operation);
+    }
+  }
+}
@@ -1,7 +1,31 @@
 package test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
 import org.junit.Test;
 import src.controller.commands.BlurImage;
 import src.controller.commands.BrightenImage;
@@ -10,10 +34,12 @@ import src.controller.commands.ConvertToSepia;
 import src.controller.commands.FlipHorizontal;
 import src.controller.commands.FlipVertical;
 import src.controller.commands.ImageLoader;
+import src.controller.commands.LevelsAdjust;
 import src.controller.commands.RGBCombine;
 import src.controller.commands.RGBSplit;
 import src.controller.commands.SaveImage;
 import src.controller.ScriptController;
+import src.controller.ScriptPlan;
 import src.controller.commands.SharpenImage;
 import src.controller.SimpleScriptController;
 import src.controller.commands.VisualiseBlue;
@@ -22,7 +48,10 @@ import src.controller.commands.VisualiseIntensity;
 import src.controller.commands.VisualiseLuma;
 import src.controller.commands.VisualiseRed;
 import src.controller.commands.VisualiseValue;
+import src.controller.helper.SaveQueue;
 import src.model.ExtendedImageHandlerAdapter;
+import src.model.ExtendedMock;
+import src.model.PackedImage;
 import src.model.SimpleExtendedImageHandlerAdapter;
 import src.view.SimpleView;
 import src.view.View;
@@ -747,4 +776,191 @@ public class TestController {
     scriptController.processInput();
   }
 
+  @Test
+  public void testFailedSaveReportedAfterScriptRuns() {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    View view = new SimpleView();
+    ScriptController scriptController = SimpleScriptController.createKeyboard(
+        "load test-images/bird.jpg bird\n"
+            + "save bird missing-directory/bird.png\n"
+            + "brighten 10 bird bird-brightened\n", handler, view);
+    try {
+      scriptController.processInput();
+      fail("Expected the failed save to be reported");
+    } catch (RuntimeException e) {
+      assertNotNull(handler.getImage("bird-brightened"));
+    }
+  }
+
+  @Test
+  public void testSerializedPlanRunsOnEveryInput() throws IOException, ClassNotFoundException {
+    ScriptPlan plan = ScriptPlan.compile(new StringReader("# brighten, then mirror\n"
+        + "load INPUT photo\nbrighten 25 photo photo\nhorizontal-flip photo flipped\n"));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(plan);
+    }
+    try (ObjectInputStream input = new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray()))) {
+      plan = (ScriptPlan) input.readObject();
+    }
+    for (String file : new String[]{"test-images/bird.jpg", "test-images/lake.jpg"}) {
+      SimpleExtendedImageHandlerAdapter planned = new SimpleExtendedImageHandlerAdapter();
+      plan.withPaths(path -> path.replace("INPUT", file)).run(planned, new SimpleView(),
+          new SaveImage());
+      SimpleExtendedImageHandlerAdapter direct = new SimpleExtendedImageHandlerAdapter();
+      new ImageLoader().execute(new String[]{"load", file, "photo"}, direct);
+      new BrightenImage().execute(new String[]{"brighten", "25", "photo", "photo"}, direct);
+      new FlipHorizontal().execute(new String[]{"horizontal-flip", "photo", "flipped"}, direct);
+      assertArrayEquals(pixels(direct, "flipped"), pixels(planned, "flipped"));
+    }
+  }
+
+  @Test
+  public void testInvalidArgumentsReportedBeforeScriptRuns() {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    ScriptController scriptController = SimpleScriptController.createKeyboard(
+        "load test-images/bird.jpg bird\n"
+            + "brighten bright bird bird-brightened\n", handler, new SimpleView());
+    try {
+      scriptController.processInput();
+      fail("Expected the invalid brightness to be reported");
+    } catch (IllegalArgumentException e) {
+      assertNull(handler.getImage("bird"));
+    }
+  }
+
+  @Test
+  public void testValuesAndMissingImagesReportedBeforeScriptRuns() {
+    String load = "load test-images/bird.jpg bird\n";
+    String[][] scripts = {
+        {"blur bird blurred\nsave missing out.png\n", "No image found with name: missing"},
+        {"blur bird blurred split half\n", "Invalid command"},
+        {"sharpen bird sharp split 101\n", "Value must be between 0 and 100"},
+        {"levels-adjust 20 10 200 bird levelled\n",
+            "Invalid levels: ensure 0 <= black < mid < white <= 255"},
+        {"levels-adjust 10 20 256 bird levelled split 50\n",
+            "Invalid levels: ensure 0 <= black < mid < white <= 255"},
+        {"compress bird compressed 0\n", "Compression percentage must be between 0 and 100."},
+        {"compress bird compressed 100.5\n",
+            "Compression percentage must be between 0 and 100."}};
+    for (String[] script : scripts) {
+      SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+      ScriptController scriptController = SimpleScriptController.createKeyboard(
+          load + script[0], handler, new SimpleView());
+      IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+          scriptController::processInput);
+      assertEquals(script[1], e.getMessage());
+      assertNull(handler.getImage("bird"));
+    }
+  }
+
+  @Test
+  public void testCommandsCheckArgumentsAsScriptsDo() {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    new ImageLoader().execute(new String[]{"load", "test-images/bird.jpg", "bird"}, handler);
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+        () -> new LevelsAdjust().execute(new String[]{"level-adjust", "30", "20", "10", "bird",
+            "levelled", "split", "50"}, handler));
+    assertEquals("Invalid levels: ensure 0 <= black < mid < white <= 255", e.getMessage());
+    e = assertThrows(IllegalArgumentException.class,
+        () -> new SharpenImage().execute(new String[]{"sharpen", "bird", "sharp", "split", "x"},
+            handler));
+    assertEquals("Wrong command", e.getMessage());
+    assertNull(handler.getImage("levelled"));
+    assertNull(handler.getImage("sharp"));
+  }
+
+  @Test
+  public void testFailedRunDropsItsPrefetches() {
+    List<String> pending = new ArrayList<>();
+    ExtendedImageHandlerAdapter handler = new ExtendedMock(new StringBuilder()) {
+      @Override
+      public void prefetch(Path path) {
+        pending.add(path.toString());
+      }
+
+      @Override
+      public void loadImagePixels(Path path, String imageName) {
+        pending.remove(path.toString());
+      }
+
+      @Override
+      public void cancelPrefetches() {
+        pending.clear();
+      }
+    };
+    ScriptPlan plan = ScriptPlan.compile(new StringReader("load a.png x\n"
+        + "save x /nonexistent-dir/x.png\nload b.png y\nload c.png z\n"));
+    assertThrows(RuntimeException.class,
+        () -> plan.run(handler, new SimpleView(), new SaveImage()));
+    assertTrue(pending.isEmpty());
+  }
+
+  @Test
+  public void testLoadWaitsForPendingSaveOfItsFile() throws IOException {
+    Path directory = Files.createTempDirectory("saved");
+    Path middle = directory.resolve("middle.png");
+    Path last = directory.resolve("last.png");
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    try {
+      SimpleScriptController.createKeyboard("load test-images/bird.jpg bird\n"
+          + "save bird " + middle + "\nload " + middle + " reloaded\n"
+          + "save reloaded " + last + "\nsave bird " + middle + "\n"
+          + "load " + middle + " cropped\ncrop cropped cropped 0 0 5 5\n", handler,
+          new SimpleView()).processInput();
+      assertArrayEquals(pixels(handler, "bird"), pixels(handler, "reloaded"));
+      assertEquals(5, handler.getImage("cropped").getWidth());
+    } finally {
+      Files.deleteIfExists(middle);
+      Files.deleteIfExists(last);
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void testSavesToOneFileWaitForEachOther() {
+    List<String> finished = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch secondStarted = new CountDownLatch(1);
+    Path file = Paths.get("ordered.png").toAbsolutePath();
+    try (SaveQueue queue = new SaveQueue(4)) {
+      queue.submit(file, () -> {
+        try {
+          secondStarted.await(200, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        finished.add("first");
+      });
+      queue.submit(file, () -> {
+        secondStarted.countDown();
+        finished.add("second");
+      });
+      queue.flush();
+    }
+    assertEquals(Arrays.asList("first", "second"), finished);
+  }
+
+  @Test
+  public void testSavesToOneFileRunInSubmissionOrder() throws IOException {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    handler.loadImagePixels(new BufferedImage(2000, 2000, BufferedImage.TYPE_INT_RGB), "large");
+    handler.loadImagePixels(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "small");
+    File output = File.createTempFile("ordered", ".png");
+    try (SaveQueue queue = new SaveQueue(4)) {
+      SaveImage saves = new SaveImage(queue);
+      saves.save(handler, "large", output.getAbsolutePath());
+      saves.save(handler, "small", output.getAbsolutePath());
+      queue.flush();
+      assertEquals(10, ImageIO.read(output).getWidth());
+    } finally {
+      Files.delete(output.toPath());
+    }
+  }
+
+  private static int[] pixels(SimpleExtendedImageHandlerAdapter handler, String imageName) {
+    PackedImage image = PackedImage.of(handler.getImage(imageName));
+    return Arrays.copyOf(image.getData(), image.getWidth() * image.getHeight());
+  }
+
 }
\ No newline at end of file
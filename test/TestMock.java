@@ -2,6 +2,9 @@ package test;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import org.junit.Before;
 import org.junit.Test;
 import src.controller.ScriptController;
@@ -214,5 +217,43 @@ public class TestMock {
     controller.processInput();
   }
 
+  @Test
+  public void testChannelMix() {
+    String input = "channel-mix 0 0 1 0 1 0 1 0 0 photo mixed-photo";
+    controller = SimpleScriptController.createKeyboard(input, mockHandler, view);
+    controller.processInput();
+    assertEquals("Input: photo mixed-photo\n", log.toString());
+  }
+
+  @Test
+  public void testCrop() {
+    String input = "crop photo cropped-photo 10 20 300 200";
+    controller = SimpleScriptController.createKeyboard(input, mockHandler, view);
+    controller.processInput();
+    assertEquals("Input: photo cropped-photo 10 20 300 200\n", log.toString());
+  }
+
+  @Test
+  public void testLoadThenCropDecodesRegion() {
+    String input = "load images/photo.png photo\ncrop photo photo 10 20 300 200";
+    controller = SimpleScriptController.createKeyboard(input, mockHandler, view);
+    controller.processInput();
+    assertEquals("Input: images/photo.png photo 10 20 300 200\n", log.toString());
+  }
 
+  @Test
+  public void testOptimizedScriptSkipsUnsavedResults() throws IOException {
+    File output = File.createTempFile("red", ".png");
+    try {
+      String input = "load images/photo.png photo\nsepia photo unused\nblur photo photo\n"
+          + "rgb-split photo red green blue\nbrighten 10 green bright\n"
+          + "save red " + output.getAbsolutePath();
+      controller = SimpleScriptController.createKeyboard(input, mockHandler, view, true);
+      controller.processInput();
+      assertEquals("Input: photo\nInput: photo photo\nInput: photo red green blue\n"
+          + "Input: red\n", log.toString());
+    } finally {
+      Files.delete(output.toPath());
+    }
+  }
 }
@@ -1,28 +1,51 @@
 package test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThrows;
 
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
 import javax.imageio.ImageIO;
 import org.junit.Test;
+import src.controller.SimpleScriptController;
+import src.model.ColorMatrix;
 import src.model.ExtendedImageHandlerAdapter;
 import src.model.Image;
 import src.model.ImageHandler;
+import src.model.ImageEncoder;
 import src.model.ImageHandlerAdapter;
+import src.model.LookupTable;
+import src.model.Mask;
+import src.model.PackedImage;
 import src.model.Pixel;
 import src.model.SimpleExtendedImageHandlerAdapter;
 import src.model.SimpleImage;
 import src.model.SimpleImageHandler;
 import src.model.SimpleImageHandlerAdapter;
 import src.model.SimplePixel;
+import src.view.SimpleView;
 
 /**
  * Test class to validate the functionality of the model components. Ensures that images are
@@ -1032,6 +1055,750 @@ public class TestModel {
     }
   }
 
+  @Test
+  public void testLookupTableComposition() {
+    SimpleImageHandlerAdapter handler = new SimpleImageHandlerAdapter();
+    Pixel[][] pixels = new Pixel[2][2];
+    pixels[0][0] = new SimplePixel(0, 20, 250);
+    pixels[0][1] = new SimplePixel(128, 64, 32);
+    pixels[1][0] = new SimplePixel(255, 255, 255);
+    pixels[1][1] = new SimplePixel(10, 100, 200);
+    handler.getMap().put("photo", new SimpleImage(pixels));
+
+    handler.brighten("photo", "brightened", 30);
+    handler.levelsAdjust(20, 100, 255, "brightened", "two-passes");
+
+    LookupTable chain = LookupTable.brighten(30).andThen(LookupTable.levels(20, 100, 255));
+    handler.applyLookupTable("photo", "one-pass", chain);
+
+    Image expected = handler.getImage("two-passes");
+    Image actual = handler.getImage("one-pass");
+    for (int x = 0; x < 2; x++) {
+      for (int y = 0; y < 2; y++) {
+        assertEquals(expected.getPixel(x, y).getR(), actual.getPixel(x, y).getR());
+        assertEquals(expected.getPixel(x, y).getG(), actual.getPixel(x, y).getG());
+        assertEquals(expected.getPixel(x, y).getB(), actual.getPixel(x, y).getB());
+      }
+    }
+    assertEquals(255, LookupTable.brighten(30).lookup(2, 250));
+    assertEquals(0, LookupTable.brighten(-30).lookup(0, 10));
+  }
 
-}
+  @Test
+  public void testColorMatrixChannelMix() {
+    SimpleImageHandlerAdapter handler = new SimpleImageHandlerAdapter();
+    Pixel[][] pixels = new Pixel[2][1];
+    pixels[0][0] = new SimplePixel(200, 100, 50);
+    pixels[1][0] = new SimplePixel(10, 250, 0);
+    handler.getMap().put("photo", new SimpleImage(pixels));
+
+    ColorMatrix swap = new ColorMatrix(new double[][]{
+        {0, 0, 1, 0},
+        {0, 1, 0, 10},
+        {1, 0, 0, -20}
+    });
+    handler.applyColorMatrix("photo", "mixed", swap);
+    Image mixed = handler.getImage("mixed");
+
+    assertEquals(50, mixed.getPixel(0, 0).getR());
+    assertEquals(110, mixed.getPixel(0, 0).getG());
+    assertEquals(180, mixed.getPixel(0, 0).getB());
+    assertEquals(0, mixed.getPixel(1, 0).getR());
+    assertEquals(255, mixed.getPixel(1, 0).getG());
+    assertEquals(0, mixed.getPixel(1, 0).getB());
+
+    assertThrows(IllegalArgumentException.class,
+        () -> new ColorMatrix(new double[][]{{1, 0}, {0, 1}, {0, 0}}));
+  }
+
+  @Test
+  public void testSplitFiltersOnlyLeftRegion() {
+    SimpleImageHandlerAdapter handler = new SimpleImageHandlerAdapter();
+    Pixel[][] pixels = new Pixel[10][3];
+    for (int x = 0; x < 10; x++) {
+      for (int y = 0; y < 3; y++) {
+        pixels[x][y] = new SimplePixel(25 * x, 80 * y, 255 - 20 * x);
+      }
+    }
+    handler.getMap().put("photo", new SimpleImage(pixels));
+
+    handler.blur("photo", "blurred");
+    handler.blurWithSplit("photo", "preview", 30);
+
+    Image blurred = handler.getImage("blurred");
+    Image preview = handler.getImage("preview");
+    for (int x = 0; x < 10; x++) {
+      for (int y = 0; y < 3; y++) {
+        Pixel expected = x <= 3 ? blurred.getPixel(x, y) : pixels[x][y];
+        assertEquals(expected.getR(), preview.getPixel(x, y).getR());
+        assertEquals(expected.getG(), preview.getPixel(x, y).getG());
+        assertEquals(expected.getB(), preview.getPixel(x, y).getB());
+      }
+    }
+    assertNull(handler.getImage("intermediateImageName"));
+    assertThrows(IllegalArgumentException.class,
+        () -> handler.sepiaWithSplit("missing", "preview", 50));
+  }
+
+  @Test
+  public void testMaskedBlurComputesOnlySelectedPixels() {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    Pixel[][] pixels = new Pixel[6][2];
+    for (int x = 0; x < 6; x++) {
+      for (int y = 0; y < 2; y++) {
+        int value = x < 2 || x == 4 ? 20 + 10 * y : 230 - 10 * y;
+        pixels[x][y] = new SimplePixel(value, value, value);
+      }
+    }
+    Image image = new SimpleImage(pixels);
+    handler.getMap().put("photo", image);
+
+    Mask mask = Mask.threshold(image);
+    assertEquals(6, mask.getSelectedCount());
+    assertTrue(mask.isSelected(1, 0));
+    assertFalse(mask.isSelected(2, 1));
+    assertTrue(mask.isSelected(4, 1));
+
+    handler.blur("photo", "blurred");
+    handler.blurWithMask("photo", "mask", "masked");
+
+    Image blurred = handler.getImage("blurred");
+    Image masked = handler.getImage("masked");
+    for (int x = 0; x < 6; x++) {
+      for (int y = 0; y < 2; y++) {
+        Pixel expected = mask.isSelected(x, y) ? blurred.getPixel(x, y) : pixels[x][y];
+        assertEquals(expected.getR(), masked.getPixel(x, y).getR());
+        assertEquals(expected.getG(), masked.getPixel(x, y).getG());
+        assertEquals(expected.getB(), masked.getPixel(x, y).getB());
+      }
+    }
+    assertNull(handler.getImage("blurredImage"));
+  }
+
+  @Test
+  public void testMaskLoadedFromNamedImage() {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    Pixel[][] pixels = new Pixel[3][2];
+    Pixel[][] maskPixels = new Pixel[3][2];
+    for (int x = 0; x < 3; x++) {
+      for (int y = 0; y < 2; y++) {
+        pixels[x][y] = new SimplePixel(200, 40 * x, 10 * y);
+        int mask = x == 1 ? 0 : 255;
+        maskPixels[x][y] = new SimplePixel(mask, mask, mask);
+      }
+    }
+    handler.getMap().put("photo", new SimpleImage(pixels));
+    handler.getMap().put("mask", new SimpleImage(maskPixels));
+
+    handler.redComponentWithMask("photo", "mask", "masked");
+    handler.blueComponentWithMask("photo", "mask", "masked-again");
+
+    Image masked = handler.getImage("masked");
+    Image maskedAgain = handler.getImage("masked-again");
+    for (int x = 0; x < 3; x++) {
+      for (int y = 0; y < 2; y++) {
+        Pixel original = pixels[x][y];
+        assertEquals(x == 1 ? 200 : original.getG(), masked.getPixel(x, y).getG());
+        assertEquals(x == 1 ? 10 * y : original.getR(), maskedAgain.getPixel(x, y).getR());
+      }
+    }
+    assertEquals(2, Mask.fromImage(handler.getImage("mask")).getSelectedCount());
+
+    handler.getMap().put("small-mask", new SimpleImage(new Pixel[][]{{new SimplePixel(0, 0, 0)}}));
+    assertThrows(IllegalArgumentException.class,
+        () -> handler.sepiaWithMask("photo", "small-mask", "masked"));
+  }
+
+  @Test
+  public void testOverwrittenImagesDoNotCorruptSharedImages() {
+    SimpleImageHandlerAdapter handler = new SimpleImageHandlerAdapter();
+    Pixel[][] pixels = new Pixel[4][3];
+    for (int x = 0; x < 4; x++) {
+      for (int y = 0; y < 3; y++) {
+        pixels[x][y] = new SimplePixel(60 * x, 100 * y, 30);
+      }
+    }
+    handler.getMap().put("current-image", new SimpleImage(pixels));
+
+    handler.brighten("current-image", "current-image", 10);
+    handler.getMap().put("kept", handler.getImage("current-image"));
+    handler.sepia("current-image", "current-image");
+    handler.blur("current-image", "current-image");
+    handler.horizontalFlip("current-image", "other");
+    handler.getMap().remove("other");
+    handler.sharpen("current-image", "current-image");
+
+    Image kept = handler.getImage("kept");
+    for (int x = 0; x < 4; x++) {
+      for (int y = 0; y < 3; y++) {
+        assertEquals(Math.min(255, 60 * x + 10), kept.getPixel(x, y).getR());
+        assertEquals(Math.min(255, 100 * y + 10), kept.getPixel(x, y).getG());
+        assertEquals(40, kept.getPixel(x, y).getB());
+      }
+    }
+  }
+
+  @Test
+  public void testInPlaceOperationsMatchCopies() throws IOException {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    BufferedImage image = new BufferedImage(7, 5, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 7; x++) {
+      for (int y = 0; y < 5; y++) {
+        image.setRGB(x, y, (37 * x + 11 * y) % 256 << 16 | (90 * y) % 256 << 8 | 20 * x);
+      }
+    }
+    handler.loadImagePixels(image, "in-place");
+    handler.loadImagePixels(image, "source");
+
+    handler.sharpen("source", "copy");
+    handler.blurWithMask("copy", "none", "copy");
+    handler.verticalFlip("copy", "copy");
+    handler.sepiaWithSplit("copy", "expected", 40);
+
+    handler.sharpen("in-place", "in-place");
+    handler.blurWithMask("in-place", "none", "in-place");
+    handler.verticalFlip("in-place", "in-place");
+    handler.sepiaWithSplit("in-place", "in-place", 40);
+
+    Image expected = handler.getImage("expected");
+    Image actual = handler.getImage("in-place");
+    for (int x = 0; x < 7; x++) {
+      for (int y = 0; y < 5; y++) {
+        assertEquals(expected.getPixel(x, y).getR(), actual.getPixel(x, y).getR());
+        assertEquals(expected.getPixel(x, y).getG(), actual.getPixel(x, y).getG());
+        assertEquals(expected.getPixel(x, y).getB(), actual.getPixel(x, y).getB());
+      }
+    }
+
+    handler.brighten("in-place", "in-place", 255);
+    handler.brighten("in-place", "in-place", -55);
+    handler.sepiaWithMask("in-place", "none", "in-place");
+    for (int x = 0; x < 7; x++) {
+      for (int y = 0; y < 5; y++) {
+        assertEquals(200, handler.getImage("in-place").getPixel(x, y).getB());
+      }
+    }
+  }
+
+  @Test
+  public void testCachedHistogramsMatchCounts() throws IOException {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    BufferedImage image = new BufferedImage(6, 4, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 6; x++) {
+      for (int y = 0; y < 4; y++) {
+        image.setRGB(x, y, (40 * x + 9 * y) % 256 << 16 | (70 * y) % 256 << 8 | 30 * x);
+      }
+    }
+    handler.loadImagePixels(image, "image");
+    handler.loadImagePixels(image, "source");
+    SimpleImageHandlerAdapter.analyzeColorLevels(handler.getImage("image"));
+    SimpleImageHandlerAdapter.analyzeColorLevels(handler.getImage("source"));
+
+    handler.levelsAdjust(20, 100, 230, "source", "levels");
+    handler.horizontalFlip("levels", "flipped");
+    handler.brighten("image", "image", 40);
+    handler.colorCorrect("image", "image");
+    handler.verticalFlip("image", "image");
+    handler.blur("image", "blurred");
+    handler.brighten("source", "source", -30);
+    handler.sharpen("source", "source");
+
+    for (String name : new String[]{"levels", "flipped", "image", "blurred", "source"}) {
+      Image result = handler.getImage(name);
+      int[][] counted = new int[3][256];
+      for (int x = 0; x < 6; x++) {
+        for (int y = 0; y < 4; y++) {
+          counted[0][result.getPixel(x, y).getR()]++;
+          counted[1][result.getPixel(x, y).getG()]++;
+          counted[2][result.getPixel(x, y).getB()]++;
+        }
+      }
+      int[][] cached = SimpleImageHandlerAdapter.analyzeColorLevels(result);
+      for (int channel = 0; channel < 3; channel++) {
+        assertArrayEquals(counted[channel], cached[channel]);
+      }
+    }
+  }
+
+  @Test
+  public void testLargeImageHistogramCountsEveryPixel() {
+    int[] data = new int[640 * 480];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (i % 256) << 16 | (i / 640 % 256) << 8 | i % 7;
+    }
+    int[][] levels = SimpleImageHandlerAdapter.analyzeColorLevels(new PackedImage(640, 480, data));
+    for (int value = 0; value < 256; value++) {
+      assertEquals(1200, levels[0][value]);
+      assertEquals(value < 224 ? 1280 : 640, levels[1][value]);
+      assertEquals(value < 7 ? data.length / 7 + (value < data.length % 7 ? 1 : 0) : 0,
+          levels[2][value]);
+    }
+  }
+
+  @Test
+  public void testProcessImageCopiesPixelsToBufferedImage() throws IOException {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    BufferedImage image = new BufferedImage(5, 3, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 5; x++) {
+      for (int y = 0; y < 3; y++) {
+        image.setRGB(x, y, (50 * x) << 16 | (80 * y) << 8 | (13 * x + y));
+      }
+    }
+    handler.loadImagePixels(image, "image");
+    handler.horizontalFlip("image", "flipped");
+
+    BufferedImage processed = handler.processImage("flipped");
+    handler.brighten("flipped", "flipped", 100);
+    assertEquals(5, processed.getWidth());
+    assertEquals(3, processed.getHeight());
+    for (int x = 0; x < 5; x++) {
+      for (int y = 0; y < 3; y++) {
+        assertEquals(image.getRGB(4 - x, y), processed.getRGB(x, y));
+      }
+    }
+    assertThrows(IllegalArgumentException.class, () -> handler.processImage("missing"));
+  }
+
+  @Test
+  public void testWriteEncodesStoredPixels() throws IOException {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    BufferedImage image = new BufferedImage(4, 6, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 4; x++) {
+      for (int y = 0; y < 6; y++) {
+        image.setRGB(x, y, (60 * x) << 16 | (40 * y) << 8 | (7 * x * y));
+      }
+    }
+    handler.loadImagePixels(image, "image");
+    handler.verticalFlip("image", "flipped");
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    handler.write("flipped", "png", Channels.newChannel(output));
+    BufferedImage written = ImageIO.read(new ByteArrayInputStream(output.toByteArray()));
+    for (int x = 0; x < 4; x++) {
+      for (int y = 0; y < 6; y++) {
+        assertEquals(image.getRGB(x, 5 - y) & 0xFFFFFF, written.getRGB(x, y) & 0xFFFFFF);
+      }
+    }
+    assertThrows(IllegalArgumentException.class,
+        () -> handler.write("flipped", "unknown", Channels.newChannel(output)));
+    assertThrows(IllegalArgumentException.class,
+        () -> handler.write("missing", "png", Channels.newChannel(output)));
+  }
 
+  @Test
+  public void testLoadAsciiAndBinaryPpm() throws IOException {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    Path ascii = Files.createTempFile("ascii", ".ppm");
+    Path binary = Files.createTempFile("binary", ".ppm");
+    Path truncated = Files.createTempFile("truncated", ".ppm");
+    try {
+      Files.write(ascii, ("P3\n# comment\n3 2\n255\n0 1 2 3 4 5\n6 7 8\n"
+          + "9 10 11 12 13 14 255 254 253\n").getBytes(StandardCharsets.US_ASCII));
+      byte[] header = "P6\n3 2\n255\n".getBytes(StandardCharsets.US_ASCII);
+      byte[] file = Arrays.copyOf(header, header.length + 18);
+      for (int i = 0; i < 15; i++) {
+        file[header.length + i] = (byte) i;
+      }
+      file[header.length + 15] = (byte) 255;
+      file[header.length + 16] = (byte) 254;
+      file[header.length + 17] = (byte) 253;
+      Files.write(binary, file);
+      Files.write(truncated, Arrays.copyOf(file, file.length - 1));
+
+      handler.loadImagePixelsFromPPM(ascii, "ascii");
+      handler.loadImagePixelsFromPPM(binary, "binary");
+      handler.loadImagePixelsFromPPM(Files.newBufferedReader(ascii), "reader");
+      for (String name : new String[]{"ascii", "binary", "reader"}) {
+        Image image = handler.getImage(name);
+        assertEquals(3, image.getWidth());
+        assertEquals(2, image.getHeight());
+        assertEquals(3, image.getPixel(1, 0).getR());
+        assertEquals(10, image.getPixel(0, 1).getG());
+        assertEquals(253, image.getPixel(2, 1).getB());
+      }
+      assertThrows(IllegalArgumentException.class,
+          () -> handler.loadImagePixelsFromPPM(truncated, "truncated"));
+    } finally {
+      Files.delete(ascii);
+      Files.delete(binary);
+      Files.delete(truncated);
+    }
+  }
+
+  @Test
+  public void testParallelAsciiPpmMatchesStreamingReader() throws IOException {
+    int width = 37;
+    int height = 23;
+    Random random = new Random(7);
+    StringBuilder pixels = new StringBuilder();
+    for (int i = 0; i < width * height * 3; i++) {
+      pixels.append(random.nextInt(256)).append(random.nextInt(4) == 0 ? "\n" : "  ");
+    }
+    String header = "P3\n" + width + " " + height + "\n255\n";
+    Path valid = Files.createTempFile("parallel", ".ppm");
+    Path comment = Files.createTempFile("comment", ".ppm");
+    Path tooMany = Files.createTempFile("many", ".ppm");
+    Path tooFew = Files.createTempFile("few", ".ppm");
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    try {
+      Files.write(valid, (header + pixels).getBytes(StandardCharsets.US_ASCII));
+      Files.write(comment, (header + pixels.substring(0, pixels.length() / 2) + "\n# comment\n"
+          + pixels.substring(pixels.length() / 2)).getBytes(StandardCharsets.US_ASCII));
+      Files.write(tooMany, (header + pixels + "1 2 3\n").getBytes(StandardCharsets.US_ASCII));
+      String values = pixels.toString().trim();
+      Files.write(tooFew, (header + values.substring(0, values.lastIndexOf(' ')))
+          .getBytes(StandardCharsets.US_ASCII));
+      handler.loadImagePixelsFromPPM(Files.newBufferedReader(valid), "streamed");
+      int[] expected = Arrays.copyOf(PackedImage.of(handler.getImage("streamed")).getData(),
+          width * height);
+
+      System.setProperty("ime.ppm.parallel.threshold", "0");
+      for (String workers : new String[]{"2", "3", "8"}) {
+        for (String chunk : new String[]{"5", "64", "1000"}) {
+          System.setProperty("ime.ppm.workers", workers);
+          System.setProperty("ime.ppm.chunk.min", chunk);
+          for (Path file : new Path[]{valid, comment}) {
+            handler.loadImagePixelsFromPPM(file, "parallel");
+            assertArrayEquals(expected, Arrays.copyOf(
+                PackedImage.of(handler.getImage("parallel")).getData(), width * height));
+          }
+          for (Path file : new Path[]{tooMany, tooFew}) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> handler.loadImagePixelsFromPPM(file, "invalid"));
+            assertTrue(e.getMessage().startsWith("Invalid PPM file: expected "
+                + width * height * 3 + " pixel values but found "));
+          }
+        }
+      }
+    } finally {
+      System.clearProperty("ime.ppm.parallel.threshold");
+      System.clearProperty("ime.ppm.workers");
+      System.clearProperty("ime.ppm.chunk.min");
+      Files.delete(valid);
+      Files.delete(comment);
+      Files.delete(tooMany);
+      Files.delete(tooFew);
+    }
+  }
+
+  @Test
+  public void testWrittenPpmLoadsBack() throws IOException {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    BufferedImage image = new BufferedImage(5, 4, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 5; x++) {
+      for (int y = 0; y < 4; y++) {
+        image.setRGB(x, y, (51 * x) << 16 | (85 * y) << 8 | (12 * x * y + 7));
+      }
+    }
+    handler.loadImagePixels(image, "image");
+
+    for (String format : new String[]{"ppm", "p3"}) {
+      Path file = Files.createTempFile(format, ".ppm");
+      try {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+          handler.write("image", format, channel);
+        }
+        String header = format.equals("ppm") ? "P6\n5 4\n255\n" : "P3\n5 4\n255\n";
+        assertTrue(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1)
+            .startsWith(header));
+        handler.loadImagePixelsFromPPM(file, format);
+        for (int x = 0; x < 5; x++) {
+          for (int y = 0; y < 4; y++) {
+            assertEquals(image.getRGB(x, y) & 0xFFFFFF,
+                PackedImage.of(handler.getImage(format)).getData()[y * 5 + x]);
+          }
+        }
+      } finally {
+        Files.delete(file);
+      }
+    }
+
+    Path directory = Files.createTempDirectory("p3");
+    Path file = directory.resolve("image.p3");
+    try {
+      SimpleScriptController.createKeyboard("save image " + file + "\nload " + file
+          + " reloaded\n", handler, new SimpleView()).processInput();
+      assertTrue(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1)
+          .startsWith("P3\n5 4\n255\n"));
+      assertArrayEquals(Arrays.copyOf(PackedImage.of(handler.getImage("image")).getData(), 20),
+          Arrays.copyOf(PackedImage.of(handler.getImage("reloaded")).getData(), 20));
+    } finally {
+      Files.deleteIfExists(file);
+      Files.delete(directory);
+    }
+  }
+
+  @Test
+  public void testLoadFromFileMatchesDecodedPixels() throws IOException {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    BufferedImage image = new BufferedImage(9, 7, BufferedImage.TYPE_4BYTE_ABGR);
+    for (int x = 0; x < 9; x++) {
+      for (int y = 0; y < 7; y++) {
+        image.setRGB(x, y, (20 * y) << 24 | (28 * x) << 16 | (36 * y) << 8 | (x * y));
+      }
+    }
+    for (String format : new String[]{"png", "bmp"}) {
+      Path file = Files.createTempFile("decoded", "." + format);
+      try {
+        ImageIO.write(format.equals("png") ? image : convertToRgb(image), format, file.toFile());
+        BufferedImage decoded = ImageIO.read(file.toFile());
+        handler.loadImagePixels(file, format);
+        handler.loadImagePixels(decoded, format + "-copy");
+        for (int x = 0; x < 9; x++) {
+          for (int y = 0; y < 7; y++) {
+            int expected = decoded.getRGB(x, y) & 0xFFFFFF;
+            assertEquals(expected, PackedImage.of(handler.getImage(format)).getData()[y * 9 + x]);
+            assertEquals(expected,
+                PackedImage.of(handler.getImage(format + "-copy")).getData()[y * 9 + x]);
+          }
+        }
+      } finally {
+        Files.delete(file);
+      }
+    }
+    assertThrows(IOException.class,
+        () -> handler.loadImagePixels(Path.of("test-images", "missing.png"), "missing"));
+  }
+
+  @Test
+  public void testLoadDownscaledMatchesLoadThenDownscale() throws IOException {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    BufferedImage image = new BufferedImage(60, 40, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 60; x++) {
+      for (int y = 0; y < 40; y++) {
+        image.setRGB(x, y, (4 * x) << 16 | (6 * y) << 8 | (x * y % 256));
+      }
+    }
+    Path file = Files.createTempFile("downscaled", ".png");
+    try {
+      ImageIO.write(image, "png", file.toFile());
+      handler.loadImagePixels(file, "full");
+      for (int[] size : new int[][]{{20, 10}, {60, 40}, {17, 13}, {1, 1}}) {
+        handler.downscale("full", "expected", size[0], size[1]);
+        handler.loadDownscaled(file, "actual", size[0], size[1]);
+        assertEquals(size[0], handler.getImage("actual").getWidth());
+        assertEquals(size[1], handler.getImage("actual").getHeight());
+        assertArrayEquals(PackedImage.of(handler.getImage("expected")).getData(),
+            PackedImage.of(handler.getImage("actual")).getData());
+      }
+      assertThrows(IllegalArgumentException.class,
+          () -> handler.loadDownscaled(file, "upscaled", 61, 40));
+      assertNull(handler.getImage("upscaled"));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testCropSharesPixelsUntilSourceChanges() throws IOException {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    int[] data = new int[12 * 8];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = i * 0x010203;
+    }
+    BufferedImage image = new BufferedImage(12, 8, BufferedImage.TYPE_INT_RGB);
+    image.setRGB(0, 0, 12, 8, data, 0, 12);
+    handler.loadImagePixels(image, "image");
+    handler.crop("image", "crop", 3, 2, 5, 4);
+    handler.crop("crop", "inner", 1, 1, 2, 2);
+    assertEquals(5, handler.getImage("crop").getWidth());
+    assertEquals(4, handler.getImage("crop").getHeight());
+    assertEquals(data[(2 + 3) * 12 + 3 + 4] & 0xFF,
+        handler.getImage("crop").getPixel(4, 3).getB());
+    assertArrayEquals(new int[]{data[3 * 12 + 4], data[3 * 12 + 5], data[4 * 12 + 4],
+        data[4 * 12 + 5]}, PackedImage.of(handler.getImage("inner")).getData());
+    assertSame(PackedImage.of(handler.getImage("crop")), PackedImage.of(handler.getImage("crop")));
+
+    handler.brighten("image", "image", 10);
+    handler.blur("crop", "crop");
+    assertEquals(data[3 * 12 + 4], PackedImage.of(handler.getImage("inner")).getData()[0]);
+    assertThrows(IllegalArgumentException.class,
+        () -> handler.crop("image", "outside", 8, 0, 5, 4));
+    assertThrows(IllegalArgumentException.class,
+        () -> handler.crop("missing", "crop", 0, 0, 1, 1));
+  }
+
+  @Test
+  public void testEveryMapChangeKeepsReferenceCounts() throws IOException {
+    SimpleImageHandler handler = new SimpleImageHandler();
+    BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+    handler.loadImagePixels(image, "a");
+    Image stored = handler.getImage("a");
+    Map<String, Image> map = handler.getMap();
+    map.putAll(Map.of("b", stored));
+    map.replace("b", stored);
+    map.merge("c", stored, (previous, next) -> next);
+    for (Map.Entry<String, Image> entry : map.entrySet()) {
+      entry.setValue(stored);
+    }
+    map.remove("b");
+    map.entrySet().removeIf(entry -> !entry.getKey().equals("a"));
+    image.setRGB(0, 0, 0xABCDEF);
+    handler.loadImagePixels(image, "other");
+    assertTrue(stored == handler.getImage("a"));
+    assertEquals(0, stored.getPixel(0, 0).getR());
+    map.remove("other");
+    map.compute("a", (name, previous) -> null);
+    assertTrue(map.isEmpty());
+
+    image.setRGB(0, 0, 0x123456);
+    handler.loadImagePixels(image, "first");
+    image.setRGB(0, 0, 0x654321);
+    handler.loadImagePixels(image, "second");
+    assertFalse(PackedImage.of(handler.getImage("first")).getData()
+        == PackedImage.of(handler.getImage("second")).getData());
+    assertEquals(0x12, handler.getImage("first").getPixel(0, 0).getR());
+  }
+
+  @Test
+  public void testEqualImagesShareOneBuffer() throws IOException {
+    SimpleImageHandler handler = new SimpleImageHandler();
+    BufferedImage image = new BufferedImage(6, 4, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 6; x++) {
+      for (int y = 0; y < 4; y++) {
+        image.setRGB(x, y, (40 * x) << 16 | (60 * y) << 8 | 7);
+      }
+    }
+    handler.loadImagePixels(image, "first");
+    handler.loadImagePixels(image, "second");
+    handler.brighten("first", "brighter", 0);
+    assertTrue(handler.getImage("first") == handler.getImage("second"));
+    assertTrue(handler.getImage("first") == handler.getImage("brighter"));
+
+    image.setRGB(0, 0, 0xFFFFFF);
+    handler.loadImagePixels(image, "other");
+    assertFalse(handler.getImage("first") == handler.getImage("other"));
+    assertEquals(0xFF, handler.getImage("other").getPixel(0, 0).getR());
+
+    handler.brighten("first", "first", 10);
+    assertEquals(17, handler.getImage("first").getPixel(0, 0).getB());
+    assertEquals(7, handler.getImage("second").getPixel(0, 0).getB());
+    handler.loadImagePixels(image, "second");
+    handler.loadImagePixels(image, "brighter");
+    assertTrue(handler.getImage("second") == handler.getImage("other"));
+    assertEquals(17, handler.getImage("first").getPixel(0, 0).getB());
+  }
+
+  @Test
+  public void testLoadRegionMatchesLoadThenCrop() throws IOException {
+    SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+    BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 40; x++) {
+      for (int y = 0; y < 30; y++) {
+        image.setRGB(x, y, (6 * x) << 16 | (8 * y) << 8 | (x * y % 256));
+      }
+    }
+    for (String format : new String[]{"png", "bmp", "jpg"}) {
+      Path file = Files.createTempFile("region", "." + format);
+      try {
+        ImageIO.write(image, format, file.toFile());
+        handler.loadImagePixels(file, "full");
+        handler.crop("full", "expected", 7, 5, 20, 11);
+        handler.loadRegion(file, "actual", 7, 5, 20, 11);
+        assertArrayEquals(PackedImage.of(handler.getImage("expected")).getData(),
+            PackedImage.of(handler.getImage("actual")).getData());
+        assertThrows(IllegalArgumentException.class,
+            () -> handler.loadRegion(file, "outside", 30, 0, 20, 11));
+      } finally {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Test
+  public void testEncoderWritesSnapshot() throws IOException {
+    SimpleImageHandler handler = new SimpleImageHandler();
+    BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+    image.setRGB(1, 2, 0x204060);
+    handler.loadImagePixels(image, "image");
+    ImageEncoder encoder = handler.encoder("image", "ppm");
+    handler.brighten("image", "image", 50);
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    encoder.writeTo(Channels.newChannel(written));
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    handler.brighten("image", "image", -50);
+    handler.write("image", "ppm", Channels.newChannel(expected));
+    assertArrayEquals(expected.toByteArray(), written.toByteArray());
+    assertThrows(IllegalArgumentException.class, () -> handler.encoder("image", "unknown"));
+    assertThrows(IllegalArgumentException.class, () -> handler.encoder("missing", "png"));
+  }
+
+  @Test
+  public void testPrefetchedLoadMatchesDirectLoad() throws IOException {
+    SimpleImageHandler handler = new SimpleImageHandler();
+    BufferedImage image = new BufferedImage(6, 5, BufferedImage.TYPE_INT_RGB);
+    image.setRGB(2, 3, 0x336699);
+    Path png = Files.createTempFile("prefetched", ".png");
+    Path ppm = Files.createTempFile("prefetched", ".ppm");
+    try {
+      ImageIO.write(image, "png", png.toFile());
+      handler.loadImagePixels(png, "direct");
+      try (FileChannel channel = FileChannel.open(ppm, StandardOpenOption.WRITE)) {
+        handler.write("direct", "ppm", channel);
+      }
+      handler.prefetch(png);
+      handler.prefetch(ppm);
+      handler.loadImagePixels(png, "png");
+      handler.loadImagePixelsFromPPM(ppm, "ppm");
+      int[] expected = PackedImage.of(handler.getImage("direct")).getData();
+      assertArrayEquals(expected, PackedImage.of(handler.getImage("png")).getData());
+      assertArrayEquals(expected, PackedImage.of(handler.getImage("ppm")).getData());
+
+      handler.prefetch(png);
+      Files.delete(png);
+      assertThrows(IOException.class, () -> handler.loadImagePixels(png, "deleted"));
+    } finally {
+      Files.deleteIfExists(png);
+      Files.delete(ppm);
+    }
+  }
+
+  @Test
+  public void testRepeatedOperationsReuseCachedResults() throws IOException {
+    Path directory = Files.createTempDirectory("results");
+    System.setProperty("ime.cache.dir", directory.toString());
+    try {
+      SimpleExtendedImageHandlerAdapter handler = new SimpleExtendedImageHandlerAdapter();
+      BufferedImage image = new BufferedImage(7, 5, BufferedImage.TYPE_INT_RGB);
+      for (int x = 0; x < 7; x++) {
+        image.setRGB(x, x % 5, 0x40C080 + x);
+      }
+      handler.loadImagePixels(image, "first");
+      handler.loadImagePixels(image, "second");
+      handler.blur("first", "blurred");
+      handler.blur("second", "blurred-again");
+      handler.blur("second", "blurred-third");
+      int[] blurred = PackedImage.of(handler.getImage("blurred")).getData().clone();
+      assertArrayEquals(blurred, PackedImage.of(handler.getImage("blurred-again")).getData());
+      assertTrue(handler.getImage("blurred-again") == handler.getImage("blurred-third"));
+
+      handler.brighten("first", "first", 30);
+      handler.blur("first", "first");
+      assertFalse(Arrays.equals(blurred, PackedImage.of(handler.getImage("first")).getData()));
+
+      SimpleExtendedImageHandlerAdapter rerun = new SimpleExtendedImageHandlerAdapter();
+      rerun.loadImagePixels(image, "image");
+      rerun.blur("image", "blurred");
+      assertArrayEquals(blurred, PackedImage.of(rerun.getImage("blurred")).getData());
+      try (Stream<Path> files = Files.list(directory)) {
+        // the blur, the brighten; the blur of "first" ran in place and is not cached
+        assertEquals(2, files.count());
+      }
+    } finally {
+      System.clearProperty("ime.cache.dir");
+      try (Stream<Path> files = Files.list(directory)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  private static BufferedImage convertToRgb(BufferedImage image) {
+    BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(),
+        BufferedImage.TYPE_INT_BGR);
+    rgb.getGraphics().drawImage(image, 0, 0, null);
+    return rgb;
+  }
+}
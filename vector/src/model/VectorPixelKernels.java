@@ -0,0 +1,308 @@
+package src.model;
+
+import java.util.Arrays;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of the pixel kernels on the incubating Java Vector API. Whole vectors of pixels
+ * are processed per step; the ragged ends of a span and the image borders are handed to the scalar
+ * kernels. Floating point work is done lane by lane with the same operations in the same order as
+ * the scalar kernels, so the results are bit-identical.
+ *
+ * <p>Every int vector has as many lanes as a double vector, even where only integer math is done,
+ * and each channel is processed in its own small loop. Both keep the JIT compiler from falling back
+ * to boxed vector objects: it gives up on helpers that see more than one vector shape, and on loop
+ * bodies that grow too large to inline completely.
+ *
+ * <p>This class lives in its own source set, {@code vector/}, so that the rest of the tree builds
+ * with a plain {@code javac}. It is compiled separately, against the classes of the main build and
+ * with {@code --add-modules jdk.incubator.vector}, into the same output directory. It is only
+ * loaded, by reflection, through {@link PixelKernels#select()}, which falls back to the scalar
+ * kernels when the class was not built or the module is missing at runtime.
+ */
+class VectorPixelKernels extends ScalarPixelKernels {
+
+  private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+  private static final VectorSpecies<Integer> INTS;
+  private static final int[] EVENS;
+  private static final long MANTISSA = (1L << 52) - 1;
+  private static final int BLOCK = 4096;
+  private static final ThreadLocal<int[]> BLOCKS = ThreadLocal.withInitial(() -> new int[BLOCK]);
+
+  static {
+    int bits = Math.max(64, DOUBLES.vectorBitSize() / 2);
+    INTS = VectorSpecies.of(int.class, VectorShape.forBitSize(bits));
+    EVENS = new int[DOUBLES.length()];
+    for (int k = 0; k < EVENS.length; k++) {
+      EVENS[k] = 2 * k;
+    }
+  }
+
+  /**
+   * Constructs the vector kernels.
+   *
+   * @throws UnsupportedOperationException if this platform has no usable vector shape.
+   */
+  VectorPixelKernels() {
+    if (DOUBLES.length() < 2 || INTS.length() != DOUBLES.length()) {
+      throw new UnsupportedOperationException("No vector shape available for pixel kernels");
+    }
+  }
+
+  @Override
+  public void brighten(int[] source, int[] destination, int from, int to, int value) {
+    int i = from;
+    int bound = from + INTS.loopBound(to - from);
+    for (; i < bound; i += INTS.length()) {
+      IntVector rgb = IntVector.fromArray(INTS, source, i);
+      IntVector red = channel(rgb, 16).add(value).max(0).min(255);
+      IntVector green = channel(rgb, 8).add(value).max(0).min(255);
+      IntVector blue = channel(rgb, 0).add(value).max(0).min(255);
+      pack(red, green, blue).intoArray(destination, i);
+    }
+    super.brighten(source, destination, i, to, value);
+  }
+
+  @Override
+  public void colorMatrix(int[] source, int[] destination, int from, int to,
+      ColorMatrix matrix) {
+    int[] block = BLOCKS.get();
+    int i = from;
+    int bound = from + DOUBLES.loopBound(to - from);
+    while (i < bound) {
+      int length = DOUBLES.loopBound(Math.min(block.length, bound - i));
+      for (int out = 0; out < 3; out++) {
+        mixChannel(source, block, i, length, matrix.getRow(out), 16 - 8 * out);
+      }
+      System.arraycopy(block, 0, destination, i, length);
+      i += length;
+    }
+    super.colorMatrix(source, destination, i, to, matrix);
+  }
+
+  /**
+   * Computes one output channel of a block of pixels. Mixing into a separate block makes it safe
+   * to mix in place.
+   */
+  private static void mixChannel(int[] source, int[] block, int from, int length, double[] row,
+      int shift) {
+    for (int i = 0; i < length; i += DOUBLES.length()) {
+      IntVector rgb = IntVector.fromArray(INTS, source, from + i);
+      DoubleVector value = toDoubles(rgb, 16).mul(row[0])
+          .add(toDoubles(rgb, 8).mul(row[1]))
+          .add(toDoubles(rgb, 0).mul(row[2]))
+          .add(row[3]);
+      storeChannel(value.min(255).max(0), block, i, shift);
+    }
+  }
+
+  @Override
+  public void blur(int[] source, int[] destination, int width, int height, int y, int fromX,
+      int toX) {
+    int[] rows = neighbourRows(width, height, y);
+    int x = fromX;
+    for (; x < toX && x < 1; x++) {
+      destination[y * width + x] = blurPixel(source, width, rows, x);
+    }
+    int end = x + DOUBLES.loopBound(Math.max(Math.min(toX, width - 1) - x, 0));
+    double[] sums = new double[end - x];
+    for (int shift = 16; shift >= 0; shift -= 8) {
+      Arrays.fill(sums, 0);
+      accumulate(source, sums, rows, x, end, -1, shift);
+      accumulate(source, sums, rows, x, end, 0, shift);
+      blurChannel(source, destination, sums, rows, y * width, x, end, shift);
+    }
+    for (x = end; x < toX; x++) {
+      destination[y * width + x] = blurPixel(source, width, rows, x);
+    }
+  }
+
+  /**
+   * Adds the weighted neighbours of one column offset to the running sums of one channel, in the
+   * order of the scalar kernel.
+   */
+  private static void accumulate(int[] source, double[] sums, int[] rows, int from, int to,
+      int dx, int shift) {
+    for (int x = from; x < to; x += DOUBLES.length()) {
+      DoubleVector.fromArray(DOUBLES, sums, x - from)
+          .add(weighted(source, rows[0] + x + dx, shift))
+          .add(weighted(source, rows[1] + x + dx, shift))
+          .add(weighted(source, rows[2] + x + dx, shift))
+          .intoArray(sums, x - from);
+    }
+  }
+
+  /**
+   * Adds the last column of neighbours to the running sums of one channel and writes the channel to
+   * the destination. The red pass writes the destination and the green and blue passes add their
+   * channel to it.
+   */
+  private static void blurChannel(int[] source, int[] destination, double[] sums, int[] rows,
+      int offset, int from, int to, int shift) {
+    for (int x = from; x < to; x += DOUBLES.length()) {
+      DoubleVector sum = DoubleVector.fromArray(DOUBLES, sums, x - from)
+          .add(weighted(source, rows[0] + x + 1, shift))
+          .add(weighted(source, rows[1] + x + 1, shift))
+          .add(weighted(source, rows[2] + x + 1, shift));
+      storeChannel(sum.max(0).min(255), destination, offset + x, shift);
+    }
+  }
+
+  private static DoubleVector weighted(int[] source, int index, int shift) {
+    IntVector rgb = IntVector.fromArray(INTS, source, index);
+    return toDoubles(rgb, shift).mul(BLUR_WEIGHT);
+  }
+
+  @Override
+  public void sharpen(int[] source, int[] destination, int width, int height, int y, int fromX,
+      int toX) {
+    int[] rows = neighbourRows(width, height, y);
+    int x = fromX;
+    for (; x < toX && x < 1; x++) {
+      destination[y * width + x] = sharpenPixel(source, width, rows, x);
+    }
+    int end = x + INTS.loopBound(Math.max(Math.min(toX, width - 1) - x, 0));
+    for (int shift = 16; shift >= 0; shift -= 8) {
+      sharpenChannel(source, destination, rows, x, end, shift);
+    }
+    for (x = end; x < toX; x++) {
+      destination[y * width + x] = sharpenPixel(source, width, rows, x);
+    }
+  }
+
+  /**
+   * Sharpens one channel of the interior columns {@code [from, to)} of a row. The red pass writes
+   * the destination and the green and blue passes add their channel to it.
+   */
+  private static void sharpenChannel(int[] source, int[] destination, int[] rows, int from,
+      int to, int shift) {
+    for (int x = from; x < to; x += INTS.length()) {
+      IntVector sum = channel(IntVector.fromArray(INTS, source, rows[1] + x), shift).mul(5)
+          .sub(channel(IntVector.fromArray(INTS, source, rows[1] + x - 1), shift))
+          .sub(channel(IntVector.fromArray(INTS, source, rows[1] + x + 1), shift))
+          .sub(channel(IntVector.fromArray(INTS, source, rows[0] + x), shift))
+          .sub(channel(IntVector.fromArray(INTS, source, rows[2] + x), shift));
+      IntVector result = sum.max(0).min(255).lanewise(VectorOperators.LSHL, shift);
+      if (shift != 16) {
+        result = result.or(IntVector.fromArray(INTS, destination, rows[1] + x));
+      }
+      result.intoArray(destination, rows[1] + x);
+    }
+  }
+
+  @Override
+  public void haarPairs(double[] a, double[] b, double[] sum, double[] diff, int length) {
+    int i = 0;
+    int bound = DOUBLES.loopBound(length);
+    for (; i < bound; i += DOUBLES.length()) {
+      DoubleVector first = DoubleVector.fromArray(DOUBLES, a, i);
+      DoubleVector second = DoubleVector.fromArray(DOUBLES, b, i);
+      first.add(second).div(SQRT_TWO).intoArray(sum, i);
+      first.sub(second).div(SQRT_TWO).intoArray(diff, i);
+    }
+    for (; i < length; i++) {
+      double first = a[i];
+      double second = b[i];
+      sum[i] = (first + second) / SQRT_TWO;
+      diff[i] = (first - second) / SQRT_TWO;
+    }
+  }
+
+  @Override
+  public void haarForward(double[] values, double[] scratch, int length) {
+    int half = length / 2;
+    int lanes = DOUBLES.length();
+    if (half < lanes) {
+      super.haarForward(values, scratch, length);
+      return;
+    }
+    int i = 0;
+    for (; i + lanes <= half; i += lanes) {
+      DoubleVector first = DoubleVector.fromArray(DOUBLES, values, 2 * i, EVENS, 0);
+      DoubleVector second = DoubleVector.fromArray(DOUBLES, values, 2 * i + 1, EVENS, 0);
+      first.add(second).div(SQRT_TWO).intoArray(scratch, i);
+      first.sub(second).div(SQRT_TWO).intoArray(scratch, half + i);
+    }
+    for (; i < half; i++) {
+      double first = values[2 * i];
+      double second = values[2 * i + 1];
+      scratch[i] = (first + second) / SQRT_TWO;
+      scratch[half + i] = (first - second) / SQRT_TWO;
+    }
+    System.arraycopy(scratch, 0, values, 0, length);
+  }
+
+  @Override
+  public void haarInverse(double[] values, double[] scratch, int length) {
+    int half = length / 2;
+    int lanes = DOUBLES.length();
+    if (half < lanes) {
+      super.haarInverse(values, scratch, length);
+      return;
+    }
+    int i = 0;
+    for (; i + lanes <= half; i += lanes) {
+      DoubleVector average = DoubleVector.fromArray(DOUBLES, values, i);
+      DoubleVector difference = DoubleVector.fromArray(DOUBLES, values, half + i);
+      average.add(difference).div(SQRT_TWO).intoArray(scratch, 2 * i, EVENS, 0);
+      average.sub(difference).div(SQRT_TWO).intoArray(scratch, 2 * i + 1, EVENS, 0);
+    }
+    for (; i < half; i++) {
+      double average = values[i];
+      double difference = values[half + i];
+      scratch[2 * i] = (average + difference) / SQRT_TWO;
+      scratch[2 * i + 1] = (average - difference) / SQRT_TWO;
+    }
+    System.arraycopy(scratch, 0, values, 0, length);
+  }
+
+  private static IntVector channel(IntVector rgb, int shift) {
+    return rgb.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+  }
+
+  private static IntVector pack(IntVector red, IntVector green, IntVector blue) {
+    return red.lanewise(VectorOperators.LSHL, 16)
+        .or(green.lanewise(VectorOperators.LSHL, 8))
+        .or(blue);
+  }
+
+  /**
+   * Extracts one channel of a vector of pixels as doubles.
+   */
+  private static DoubleVector toDoubles(IntVector rgb, int shift) {
+    return (DoubleVector) rgb.lanewise(VectorOperators.LSHR, shift).and(0xFF)
+        .convertShape(VectorOperators.I2D, DOUBLES, 0);
+  }
+
+  /**
+   * Writes one channel, given as doubles in the range 0-255, to a span of packed pixels. The red
+   * channel overwrites the span and the green and blue channels are added to it.
+   */
+  private static void storeChannel(DoubleVector value, int[] destination, int index, int shift) {
+    IntVector result = toInts(value).lanewise(VectorOperators.LSHL, shift);
+    if (shift != 16) {
+      result = result.or(IntVector.fromArray(INTS, destination, index));
+    }
+    result.intoArray(destination, index);
+  }
+
+  /**
+   * Truncates doubles in the range 0-255 towards zero, like an {@code (int)} cast. The conversion
+   * is done on the bits of the doubles, as JDK 17 cannot compile a double to int vector cast to a
+   * single instruction: the implicit leading bit and the mantissa are shifted right by the number
+   * of fraction bits. Values below one get the largest shift, which leaves zero.
+   */
+  private static IntVector toInts(DoubleVector values) {
+    LongVector bits = values.reinterpretAsLongs();
+    LongVector exponent = bits.lanewise(VectorOperators.LSHR, 52).and(0x7FF);
+    LongVector mantissa = bits.and(MANTISSA).or(MANTISSA + 1);
+    LongVector shift = exponent.neg().add(1075).min(63);
+    return (IntVector) mantissa.lanewise(VectorOperators.LSHR, shift)
+        .convertShape(VectorOperators.L2I, INTS, 0);
+  }
+}